@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.openjdk.jmh.annotations.*;
+import org.tocharian.tibetan.TibetanBenchmarkCorpus;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the full TibetanAnalyzer token stream loop, as run by indexing
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TibetanAnalyzerBenchmark {
+    
+    @Param({"query", "document"})
+    public String input;
+    
+    private TibetanAnalyzer analyzer;
+    private String[] texts;
+    private int next;
+    
+    @Setup
+    public void setUp() throws IOException {
+        analyzer = new TibetanAnalyzer();
+        List<String> corpus = input.equals("query") ? TibetanBenchmarkCorpus.queries() : TibetanBenchmarkCorpus.documents();
+        texts = corpus.toArray(new String[0]);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        analyzer.close();
+    }
+    
+    @Benchmark
+    public int tokenStream() throws IOException {
+        String text = texts[next];
+        next = (next + 1) % texts.length;
+        
+        int checksum = 0;
+        try (TokenStream stream = analyzer.tokenStream("content", text)) {
+            CharTermAttribute termAttr = stream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offsetAttr = stream.addAttribute(OffsetAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                checksum += termAttr.length() + offsetAttr.endOffset();
+            }
+            stream.end();
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic benchmark inputs
+ * Queries and documents come from the medical QA samples in docker/, and
+ * synthetic documents are drawn from the dictionary words with a fixed seed,
+ * so every run tokenizes exactly the same text
+ */
+public final class TibetanBenchmarkCorpus {
+    
+    private static final String QA_RESOURCE = "/tibetan-medical-qa-data.json";
+    private static final Pattern FIELD = Pattern.compile("\"(question|answer)\": \"((?:[^\"\\\\]++|\\\\.)*+)\"");
+    
+    // Size of a long document, in chars
+    static final int DOCUMENT_LENGTH = 20_000;
+    
+    private TibetanBenchmarkCorpus() {
+    }
+    
+    /**
+     * Questions of the QA samples: short, query-like texts
+     */
+    public static List<String> queries() throws IOException {
+        return fields("question");
+    }
+    
+    /**
+     * Answers of the QA samples, concatenated into long documents
+     */
+    public static List<String> documents() throws IOException {
+        List<String> documents = new ArrayList<>();
+        StringBuilder document = new StringBuilder();
+        for (String answer : fields("answer")) {
+            document.append(answer).append(' ');
+            if (document.length() >= DOCUMENT_LENGTH) {
+                documents.add(document.toString());
+                document.setLength(0);
+            }
+        }
+        if (document.length() > 0 || documents.isEmpty()) {
+            documents.add(document.toString());
+        }
+        return documents;
+    }
+    
+    /**
+     * Long documents of random dictionary words, with a shad every few words
+     */
+    public static List<String> syntheticDocuments(TibetanDictionaryManager dictionary, int count) {
+        List<String> words = new ArrayList<>();
+        dictionary.getTrie().forEachEntry((word, flags) -> words.add(word));
+        
+        Random random = new Random(42);
+        List<String> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder document = new StringBuilder(DOCUMENT_LENGTH + 64);
+            while (document.length() < DOCUMENT_LENGTH) {
+                document.append(words.get(random.nextInt(words.size())));
+                document.append(random.nextInt(8) == 0 ? "། " : "་");
+            }
+            documents.add(document.toString());
+        }
+        return documents;
+    }
+    
+    private static List<String> fields(String name) throws IOException {
+        String json;
+        try (InputStream is = TibetanBenchmarkCorpus.class.getResourceAsStream(QA_RESOURCE)) {
+            if (is == null) {
+                throw new IOException("Benchmark corpus not found: " + QA_RESOURCE);
+            }
+            json = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        
+        List<String> values = new ArrayList<>();
+        Matcher matcher = FIELD.matcher(json);
+        while (matcher.find()) {
+            if (matcher.group(1).equals(name)) {
+                values.add(unescape(matcher.group(2)));
+            }
+        }
+        return values;
+    }
+    
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                switch (escaped) {
+                    case 'n': result.append('\n'); break;
+                    case 't': result.append('\t'); break;
+                    case 'u':
+                        result.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                        i += 4;
+                        break;
+                    default: result.append(escaped);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
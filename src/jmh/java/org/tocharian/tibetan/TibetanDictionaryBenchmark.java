@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for TibetanDictionaryManager initialization
+ * From the bundled binary image and from the text word lists
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TibetanDictionaryBenchmark {
+    
+    @Benchmark
+    public TibetanDictionaryManager initializeFromImage() throws IOException {
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initialize();
+        return dictionary;
+    }
+    
+    @Benchmark
+    public TibetanDictionaryManager initializeFromText() throws IOException {
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initializeFromText();
+        return dictionary;
+    }
+}
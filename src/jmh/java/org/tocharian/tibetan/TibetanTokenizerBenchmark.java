@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for TibetanTokenizer on short queries and long documents
+ * Compares the String API with the char[] sink API used by the Lucene tokenizer,
+ * with and without a segmentation cache large enough to hold the corpus, in
+ * greedy and viterbi mode
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TibetanTokenizerBenchmark {
+    
+    @Param({"query", "document", "synthetic"})
+    public String input;
+    
+    @Param({"0", "100000"})
+    public int cacheSize;
+    
+    @Param({"greedy", "viterbi"})
+    public String mode;
+    
+    private TibetanTokenizer tokenizer;
+    private String[] texts;
+    private char[][] buffers;
+    private int next;
+    private Blackhole blackhole;
+    
+    private final TibetanTokenSink sink = new TibetanTokenSink() {
+        @Override
+        public void token(char[] text, int start, int end, boolean ashung, int type) {
+            blackhole.consume(end - start);
+        }
+    };
+    
+    @Setup
+    public void setUp() throws IOException {
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initialize();
+        
+        List<String> corpus;
+        switch (input) {
+            case "query": corpus = TibetanBenchmarkCorpus.queries(); break;
+            case "document": corpus = TibetanBenchmarkCorpus.documents(); break;
+            default: corpus = TibetanBenchmarkCorpus.syntheticDocuments(dictionary, 8);
+        }
+        texts = corpus.toArray(new String[0]);
+        TibetanSegmentationCache cache = cacheSize > 0 ? new TibetanSegmentationCache(cacheSize, Long.MAX_VALUE) : null;
+        tokenizer = new TibetanTokenizer(dictionary, true, cache, 0,
+            TibetanTokenizer.Mode.valueOf(mode.toUpperCase(Locale.ROOT)));
+        buffers = new char[texts.length][];
+    }
+    
+    private int nextText() {
+        int index = next;
+        next = (next + 1) % texts.length;
+        return index;
+    }
+    
+    @Benchmark
+    public List<String> tokenizeString() {
+        return tokenizer.tokenize(texts[nextText()]);
+    }
+    
+    @Benchmark
+    public void tokenizeCharArray(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        int index = nextText();
+        // The sink API normalizes in place, so work on a fresh copy each time
+        String text = texts[index];
+        char[] buffer = buffers[index];
+        if (buffer == null) {
+            buffer = buffers[index] = new char[text.length()];
+        }
+        text.getChars(0, text.length(), buffer, 0);
+        tokenizer.tokenize(buffer, 0, buffer.length, sink);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.tocharian.tibetan.TibetanBenchmarkCorpus;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the text normalization helpers on the QA documents
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TibetanCharacterUtilsBenchmark {
+    
+    private String text;
+    private char[] buffer;
+    
+    @Setup
+    public void setUp() throws IOException {
+        text = TibetanBenchmarkCorpus.documents().get(0);
+        buffer = new char[text.length()];
+    }
+    
+    @Benchmark
+    public String normalizeText() {
+        return TibetanCharacterUtils.normalizeText(text);
+    }
+    
+    @Benchmark
+    public char[] normalizeTsheg() {
+        text.getChars(0, text.length(), buffer, 0);
+        TibetanCharacterUtils.normalizeTsheg(buffer, 0, buffer.length);
+        return buffer;
+    }
+    
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public String[] getSymbols() {
+        return TibetanCharacterUtils.getSymbols(text);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentParser;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+import org.tocharian.tibetan.TibetanTokenSink;
+import org.tocharian.tibetan.TibetanTokenizer;
+import org.tocharian.tibetan.utils.TibetanNormalizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * REST handler segmenting many texts in one request
+ * POST _tibetan/segment with {"texts": [...]} returns, for each text, its
+ * tokens as [token, start_offset, end_offset, type] arrays. Texts are
+ * segmented in parallel on the tibetan_segment thread pool, with the
+ * bundled dictionary shared with the analysis components of the node.
+ */
+public class RestTibetanSegmentAction extends BaseRestHandler {
+    
+    static final Setting<Integer> MAX_TEXTS =
+        Setting.intSetting("tibetan.segment.max_texts", 1000, 1, Setting.Property.NodeScope);
+    static final Setting<Integer> MAX_CHARS =
+        Setting.intSetting("tibetan.segment.max_chars", 1_000_000, 1, Setting.Property.NodeScope);
+    
+    static final String TEXTS = "texts";
+    private static final char ASHUNG = 'འ';
+    
+    private final TibetanDictionaryRegistry registry;
+    private final int maxTexts;
+    private final int maxChars;
+    private final int threads;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+    private volatile TibetanTokenizer[] tokenizers;
+    
+    public RestTibetanSegmentAction(Settings settings, TibetanDictionaryRegistry registry) {
+        this.registry = registry;
+        this.maxTexts = MAX_TEXTS.get(settings);
+        this.maxChars = MAX_CHARS.get(settings);
+        this.threads = TibetanAnalyzerPlugin.segmentThreadPoolSize(settings);
+    }
+    
+    @Override
+    public String getName() {
+        return "tibetan_segment_action";
+    }
+    
+    @Override
+    public List<Route> routes() {
+        return List.of(new Route(GET, "/_tibetan/segment"), new Route(POST, "/_tibetan/segment"));
+    }
+    
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        SegmentRequest body;
+        try (XContentParser parser = request.contentOrSourceParamParser()) {
+            body = parse(parser);
+        }
+        Executor executor = client.threadPool().executor(TibetanAnalyzerPlugin.SEGMENT_THREAD_POOL);
+        return channel -> segment(body.texts, body.splitSuffixes, executor, channel);
+    }
+    
+    /**
+     * Read the texts and options of a request body, within the node limits
+     */
+    SegmentRequest parse(XContentParser parser) throws IOException {
+        List<String> texts = new ArrayList<>();
+        boolean splitSuffixes = true;
+        int chars = 0;
+        
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+            throw new IllegalArgumentException("request body must be an object");
+        }
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            String field = parser.currentName();
+            token = parser.nextToken();
+            if (TEXTS.equals(field) && token == XContentParser.Token.START_ARRAY) {
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    if (parser.currentToken() != XContentParser.Token.VALUE_STRING) {
+                        throw new IllegalArgumentException("[" + TEXTS + "] must be an array of strings");
+                    }
+                    String text = parser.text();
+                    chars += text.length();
+                    if (texts.size() >= maxTexts || chars > maxChars) {
+                        throw new IllegalArgumentException("request exceeds [" + MAX_TEXTS.getKey() + "] of "
+                            + maxTexts + " texts or [" + MAX_CHARS.getKey() + "] of " + maxChars + " chars");
+                    }
+                    texts.add(text);
+                }
+            } else if (TibetanAnalysisSettings.SPLIT_SUFFIXES.equals(field) && token == XContentParser.Token.VALUE_BOOLEAN) {
+                splitSuffixes = parser.booleanValue();
+            } else {
+                throw new IllegalArgumentException("unknown or malformed field [" + field + "]");
+            }
+        }
+        return new SegmentRequest(texts, splitSuffixes);
+    }
+    
+    /**
+     * Segment the texts in up to one batch per pool thread and respond once all are done
+     */
+    void segment(List<String> texts, boolean splitSuffixes, Executor executor, RestChannel channel) {
+        long started = System.nanoTime();
+        Segmentation[] results = new Segmentation[texts.size()];
+        int batches = Math.max(1, Math.min(texts.size(), threads));
+        AtomicInteger remaining = new AtomicInteger(batches);
+        AtomicBoolean failed = new AtomicBoolean();
+        
+        for (int batch = 0; batch < batches; batch++) {
+            int from = (int) ((long) texts.size() * batch / batches);
+            int to = (int) ((long) texts.size() * (batch + 1) / batches);
+            try {
+                executor.execute(() -> {
+                    try {
+                        TibetanTokenizer tokenizer = tokenizer(splitSuffixes);
+                        Worker worker = workers.get();
+                        for (int i = from; i < to; i++) {
+                            results[i] = worker.segment(tokenizer, texts.get(i));
+                        }
+                        if (remaining.decrementAndGet() == 0 && !failed.get()) {
+                            respond(channel, results, started);
+                        }
+                    } catch (Exception e) {
+                        fail(channel, failed, e);
+                    }
+                });
+            } catch (Exception e) {
+                // Rejected by a full queue: answered with 429
+                fail(channel, failed, e);
+                return;
+            }
+        }
+    }
+    
+    private static void respond(RestChannel channel, Segmentation[] results, long started) throws IOException {
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        builder.field("took", (System.nanoTime() - started) / 1_000_000);
+        builder.startArray("results");
+        for (Segmentation result : results) {
+            builder.startObject().startArray("tokens");
+            for (int i = 0; i < result.tokens.length; i++) {
+                builder.startArray()
+                    .value(result.tokens[i])
+                    .value(result.offsets[2 * i])
+                    .value(result.offsets[2 * i + 1])
+                    .value(TibetanTokenizer.TOKEN_TYPES[result.types[i]])
+                    .endArray();
+            }
+            builder.endArray().endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+        channel.sendResponse(new RestResponse(RestStatus.OK, builder));
+    }
+    
+    private static void fail(RestChannel channel, AtomicBoolean failed, Exception e) {
+        if (failed.compareAndSet(false, true)) {
+            try {
+                channel.sendResponse(new RestResponse(channel, e));
+            } catch (IOException inner) {
+                inner.addSuppressed(e);
+                throw new UncheckedIOException(inner);
+            }
+        }
+    }
+    
+    /**
+     * Get the segmenter of the bundled dictionary, acquired on first use and
+     * held for the life of the handler
+     * The dictionary is loaded without holding the handler's monitor; pool
+     * threads racing on the first request share the registry's single load
+     * and release their extra handle.
+     */
+    private TibetanTokenizer tokenizer(boolean splitSuffixes) throws IOException {
+        TibetanTokenizer[] current = tokenizers;
+        if (current == null) {
+            TibetanDictionaryRegistry.Handle handle = registry.acquireDefault();
+            synchronized (this) {
+                if (tokenizers == null) {
+                    handle.closeWhenUnreachable(this);
+                    tokenizers = new TibetanTokenizer[] {
+                        new TibetanTokenizer(handle.get(), false),
+                        new TibetanTokenizer(handle.get(), true)
+                    };
+                } else {
+                    handle.close();
+                }
+                current = tokenizers;
+            }
+        }
+        return current[splitSuffixes ? 1 : 0];
+    }
+    
+    /**
+     * Texts and options of one request
+     */
+    static final class SegmentRequest {
+        final List<String> texts;
+        final boolean splitSuffixes;
+        
+        SegmentRequest(List<String> texts, boolean splitSuffixes) {
+            this.texts = texts;
+            this.splitSuffixes = splitSuffixes;
+        }
+    }
+    
+    /**
+     * Tokens of one text, with offsets into the text as sent
+     */
+    private static final class Segmentation {
+        final String[] tokens;
+        final int[] offsets;
+        final int[] types;
+        
+        Segmentation(String[] tokens, int[] offsets, int[] types) {
+            this.tokens = tokens;
+            this.offsets = offsets;
+            this.types = types;
+        }
+    }
+    
+    /**
+     * Per-thread normalizer, buffers and token sink
+     */
+    private static final class Worker extends TibetanTokenSink {
+        private final TibetanNormalizer normalizer = new TibetanNormalizer();
+        private final List<String> tokens = new ArrayList<>();
+        private int[] offsets = new int[64];
+        private int[] types = new int[32];
+        private char[] text = new char[256];
+        
+        Segmentation segment(TibetanTokenizer tokenizer, String input) {
+            int length = input.length();
+            if (text.length < length) {
+                text = new char[Math.max(length, text.length * 2)];
+            }
+            input.getChars(0, length, text, 0);
+            normalizer.reset();
+            int written = normalizer.normalize(text, 0, length, text, 0);
+            written += normalizer.finish(text, written);
+            
+            tokens.clear();
+            tokenizer.tokenize(text, 0, written, this);
+            int count = tokens.size();
+            return new Segmentation(tokens.toArray(new String[0]),
+                Arrays.copyOf(offsets, 2 * count), Arrays.copyOf(types, count));
+        }
+        
+        @Override
+        public void token(char[] text, int start, int end, boolean ashung, int type) {
+            int index = tokens.size();
+            if (index == types.length) {
+                types = Arrays.copyOf(types, index * 2);
+                offsets = Arrays.copyOf(offsets, index * 4);
+            }
+            String token = new String(text, start, end - start);
+            tokens.add(ashung ? token + ASHUNG : token);
+            offsets[2 * index] = normalizer.correctOffset(start);
+            offsets[2 * index + 1] = normalizer.correctOffset(end);
+            types[index] = type;
+        }
+    }
+}
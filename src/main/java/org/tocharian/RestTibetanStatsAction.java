@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.tocharian.tibetan.TibetanDictionaryManager;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+import org.tocharian.tibetan.TibetanSegmentationCache;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * REST handler reporting the Tibetan analysis statistics of the node serving the request
+ * The statistics are local only: the request is not fanned out to the
+ * other nodes, so a cluster is monitored by querying each node.
+ * GET _tibetan/stats lists each dictionary loaded on the node with its
+ * holders, load statistics and segmentation counters: documents, chars and
+ * tokens by type, dictionary hit rate, out-of-vocabulary syllable rate and
+ * latency, and the segmentation cache of each component using it, by
+ * index/component name.
+ */
+public class RestTibetanStatsAction extends BaseRestHandler {
+    
+    private final Supplier<DiscoveryNodes> nodes;
+    private final TibetanDictionaryRegistry registry;
+    
+    /**
+     * @param nodes The nodes of the cluster state, to name the local node at request time
+     */
+    public RestTibetanStatsAction(Supplier<DiscoveryNodes> nodes, TibetanDictionaryRegistry registry) {
+        this.nodes = nodes;
+        this.registry = registry;
+    }
+    
+    @Override
+    public String getName() {
+        return "tibetan_stats_action";
+    }
+    
+    @Override
+    public List<Route> routes() {
+        return List.of(new Route(GET, "/_tibetan/stats"));
+    }
+    
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        return channel -> {
+            Map<String, Integer> references = registry.getReferenceCounts();
+            // The local node is only known once the node has joined a cluster state
+            DiscoveryNode localNode = nodes.get().getLocalNode();
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("node", localNode != null ? localNode.getName() : null);
+            builder.field("node_id", localNode != null ? localNode.getId() : client.getLocalNodeId());
+            builder.startObject("dictionaries");
+            for (Map.Entry<String, TibetanDictionaryManager> entry : registry.getDictionaries().entrySet()) {
+                TibetanDictionaryManager dictionary = entry.getValue();
+                builder.startObject(entry.getKey());
+                builder.field("references", references.getOrDefault(entry.getKey(), 0));
+                Map<String, Object> dictionaryStats = new TreeMap<>(dictionary.getStatistics());
+                dictionaryStats.put("load_time_ms", dictionary.getLoadMillis());
+                builder.field("dictionary", dictionaryStats);
+                builder.field("segmentation", dictionary.getSegmentationStats().getStatistics());
+                builder.startObject("caches");
+                for (Map.Entry<String, TibetanSegmentationCache> cache : registry.getSegmentationCaches(entry.getKey()).entrySet()) {
+                    builder.field(cache.getKey(), cache.getValue().getStatistics());
+                }
+                builder.endObject();
+                builder.endObject();
+            }
+            builder.endObject();
+            builder.endObject();
+            channel.sendResponse(new RestResponse(RestStatus.OK, builder));
+        };
+    }
+}
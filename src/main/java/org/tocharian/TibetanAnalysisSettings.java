@@ -0,0 +1,207 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AnalysisMode;
+import org.tocharian.tibetan.TibetanDictionaryLoader;
+import org.tocharian.tibetan.TibetanDictionaryManager;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+import org.tocharian.tibetan.TibetanSegmentationCache;
+import org.tocharian.tibetan.TibetanTokenizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Settings shared by the Tibetan analysis components
+ * Keeps the analyzer, tokenizer and token filter factories reading the same
+ * keys with the same defaults and validation
+ */
+final class TibetanAnalysisSettings {
+    
+    static final String CHUNK_SIZE = "chunk_size";
+    static final String SPLIT_SUFFIXES = "split_suffixes";
+    static final String USER_DICTIONARY_PATH = "user_dictionary_path";
+    static final String USER_DICTIONARY_RULES = "user_dictionary_rules";
+    static final String UPDATEABLE = "updateable";
+    static final String SEGMENT_CACHE_SIZE = "segment_cache_size";
+    static final String SEGMENT_CACHE_MAX_WEIGHT = "segment_cache_max_weight";
+    static final String MAX_SYLLABLES = "max_syllables";
+    static final String MODE = "mode";
+    static final String SEARCH_MODE = "search_mode";
+    
+    static final int MIN_CHUNK_SIZE = 256;
+    static final long DEFAULT_SEGMENT_CACHE_MAX_WEIGHT = 1 << 20;
+    
+    private TibetanAnalysisSettings() {
+    }
+    
+    /**
+     * Acquire the dictionary configured for a component from the node-level registry
+     * Components with a user dictionary share a dictionary keyed by its content,
+     * so a changed file yields a new dictionary while analyzers built on the
+     * old one keep using it until they are released
+     */
+    static TibetanDictionaryRegistry.Handle acquireDictionary(TibetanDictionaryRegistry registry,
+                                                              Environment env, Settings settings) throws IOException {
+        List<String> userEntries = readUserEntries(env, settings);
+        if (userEntries == null) {
+            return registry.acquireDefault();
+        }
+        return registry.acquire("user:" + contentHash(userEntries), () -> {
+            TibetanDictionaryManager dictionary = new TibetanDictionaryManager(userEntries);
+            dictionary.initialize();
+            return dictionary;
+        });
+    }
+    
+    /**
+     * Read the user dictionary file and inline rules of a component
+     * @return the entries, or null if the component has no user dictionary
+     */
+    private static List<String> readUserEntries(Environment env, Settings settings) {
+        String path = settings.get(USER_DICTIONARY_PATH);
+        List<String> rules = settings.getAsList(USER_DICTIONARY_RULES, Collections.emptyList());
+        if (path == null && rules.isEmpty()) {
+            return null;
+        }
+        
+        Set<String> entries = new TreeSet<>();
+        if (path != null) {
+            Path file = env.configFile().resolve(path);
+            try {
+                TibetanDictionaryLoader.forEachEntry(file, entries::add);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to load user dictionary [" + file + "]: " + e.getMessage(), e);
+            }
+        }
+        for (String rule : rules) {
+            String entry = rule.trim();
+            if (!entry.isEmpty()) {
+                entries.add(entry);
+            }
+        }
+        return new ArrayList<>(entries);
+    }
+    
+    private static String contentHash(List<String> entries) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String entry : entries) {
+                digest.update(entry.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Get the analysis mode of a component
+     * Updateable components are search-time only and are rebuilt with a fresh
+     * user dictionary by the _reload_search_analyzers API
+     */
+    static AnalysisMode analysisMode(Settings settings) {
+        return settings.getAsBoolean(UPDATEABLE, false) ? AnalysisMode.SEARCH_TIME : AnalysisMode.ALL;
+    }
+    
+    /**
+     * Create a segmenter on a dictionary with the component's options
+     * A segmentation cache is reported in _tibetan/stats as index/name for as
+     * long as the component holds its dictionary handle.
+     * @param indexSettings Settings of the component's index, or null outside an index
+     */
+    static TibetanTokenizer createTokenizer(TibetanDictionaryRegistry.Handle handle, IndexSettings indexSettings,
+                                            Settings settings, String name) {
+        TibetanSegmentationCache cache = segmentationCache(settings, name);
+        if (cache != null) {
+            handle.withCache(indexSettings == null ? name : indexSettings.getIndex().getName() + "/" + name, cache);
+        }
+        return new TibetanTokenizer(handle.get(), settings.getAsBoolean(SPLIT_SUFFIXES, true),
+            cache, maxSyllables(settings, name), mode(settings, name),
+            settings.getAsBoolean(SEARCH_MODE, false));
+    }
+    
+    /**
+     * Read the segmentation algorithm of a component, greedy or viterbi
+     */
+    static TibetanTokenizer.Mode mode(Settings settings, String name) {
+        String mode = settings.get(MODE, "greedy");
+        switch (mode.toLowerCase(Locale.ROOT)) {
+            case "greedy":
+                return TibetanTokenizer.Mode.GREEDY;
+            case "viterbi":
+                return TibetanTokenizer.Mode.VITERBI;
+            default:
+                throw new IllegalArgumentException("[" + MODE + "] must be [greedy] or [viterbi] for [" + name + "], got [" + mode + "]");
+        }
+    }
+    
+    /**
+     * Read the segmentation window of a component
+     * @return the window in syllables, or 0 to fit the longest dictionary entry
+     */
+    static int maxSyllables(Settings settings, String name) {
+        if (settings.get(MAX_SYLLABLES) == null) {
+            return 0;
+        }
+        int maxSyllables = settings.getAsInt(MAX_SYLLABLES, 0);
+        if (maxSyllables < 1 || maxSyllables > TibetanTokenizer.MAX_SYLLABLES_LIMIT) {
+            throw new IllegalArgumentException("[" + MAX_SYLLABLES + "] must be between 1 and "
+                + TibetanTokenizer.MAX_SYLLABLES_LIMIT + " for [" + name + "]");
+        }
+        return maxSyllables;
+    }
+    
+    /**
+     * Create the segmentation cache of a component
+     * @return the cache, or null if the component does not cache runs
+     */
+    static TibetanSegmentationCache segmentationCache(Settings settings, String name) {
+        int size = settings.getAsInt(SEGMENT_CACHE_SIZE, 0);
+        long maxWeight = settings.getAsLong(SEGMENT_CACHE_MAX_WEIGHT, DEFAULT_SEGMENT_CACHE_MAX_WEIGHT);
+        if (size < 0) {
+            throw new IllegalArgumentException("[" + SEGMENT_CACHE_SIZE + "] must not be negative for [" + name + "]");
+        }
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("[" + SEGMENT_CACHE_MAX_WEIGHT + "] must be positive for [" + name + "]");
+        }
+        return size == 0 ? null : new TibetanSegmentationCache(size, maxWeight);
+    }
+    
+    /**
+     * Read the streaming chunk size of a component
+     */
+    static int chunkSize(Settings settings, String name) {
+        int chunkSize = settings.getAsInt(CHUNK_SIZE, TibetanLuceneTokenizer.DEFAULT_CHUNK_SIZE);
+        if (chunkSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("[" + CHUNK_SIZE + "] must be at least " + MIN_CHUNK_SIZE + " for [" + name + "]");
+        }
+        return chunkSize;
+    }
+}
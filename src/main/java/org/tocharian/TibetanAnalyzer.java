@@ -18,9 +18,11 @@ package org.tocharian;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.Tokenizer;
 import org.tocharian.tibetan.TibetanDictionaryManager;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
 import org.tocharian.tibetan.TibetanTokenizer;
 
 import java.io.IOException;
+import java.io.Reader;
 
 /**
  * Tibetan analyzer for Elasticsearch
@@ -30,8 +32,15 @@ public class TibetanAnalyzer extends Analyzer {
     
     private final TibetanDictionaryManager dictionaryManager;
     private final TibetanTokenizer tibetanTokenizer;
+    private final TibetanDictionaryRegistry.Handle dictionaryHandle;
+    private final int chunkSize;
     
+    /**
+     * Create an analyzer with its own copy of the bundled dictionaries
+     */
     public TibetanAnalyzer() {
+        this.dictionaryHandle = null;
+        this.chunkSize = TibetanLuceneTokenizer.DEFAULT_CHUNK_SIZE;
         this.dictionaryManager = new TibetanDictionaryManager();
         
         try {
@@ -43,9 +52,39 @@ public class TibetanAnalyzer extends Analyzer {
         this.tibetanTokenizer = new TibetanTokenizer(dictionaryManager);
     }
     
+    /**
+     * Create an analyzer on a shared dictionary
+     * The handle is released when the analyzer is closed
+     */
+    public TibetanAnalyzer(TibetanDictionaryRegistry.Handle dictionaryHandle) {
+        this(dictionaryHandle, TibetanLuceneTokenizer.DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Create an analyzer on a shared dictionary, reading input in chunks of the given size
+     */
+    public TibetanAnalyzer(TibetanDictionaryRegistry.Handle dictionaryHandle, int chunkSize) {
+        this(dictionaryHandle, new TibetanTokenizer(dictionaryHandle.get()), chunkSize);
+    }
+    
+    /**
+     * Create an analyzer on a shared dictionary with a configured segmenter
+     */
+    public TibetanAnalyzer(TibetanDictionaryRegistry.Handle dictionaryHandle, TibetanTokenizer tibetanTokenizer, int chunkSize) {
+        this.dictionaryHandle = dictionaryHandle;
+        this.chunkSize = chunkSize;
+        this.dictionaryManager = dictionaryHandle.get();
+        this.tibetanTokenizer = tibetanTokenizer;
+    }
+    
+    @Override
+    protected Reader initReader(String fieldName, Reader reader) {
+        return new TibetanNormalizeCharFilter(reader);
+    }
+    
     @Override
     protected TokenStreamComponents createComponents(String fieldName) {
-        Tokenizer tokenizer = new TibetanLuceneTokenizer(tibetanTokenizer);
+        Tokenizer tokenizer = new TibetanLuceneTokenizer(tibetanTokenizer, chunkSize);
         return new TokenStreamComponents(tokenizer);
     }
     
@@ -58,5 +97,13 @@ public class TibetanAnalyzer extends Analyzer {
         }
         return "Dictionary not initialized";
     }
+    
+    @Override
+    public void close() {
+        super.close();
+        if (dictionaryHandle != null) {
+            dictionaryHandle.close();
+        }
+    }
 }
 
@@ -19,19 +19,26 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.analysis.AbstractIndexAnalyzerProvider;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+
+import java.io.IOException;
 
 /**
  * Factory for Tibetan analyzer
  * Provides Tibetan analyzer instances to Elasticsearch
+ * The dictionary is taken from the node-level registry, so indices share it
  */
 public class TibetanAnalyzerFactory extends AbstractIndexAnalyzerProvider<TibetanAnalyzer> {
     
     private final TibetanAnalyzer analyzer;
     
     public TibetanAnalyzerFactory(IndexSettings indexSettings, Environment env, 
-                                    String name, Settings settings) {
+                                    String name, Settings settings,
+                                    TibetanDictionaryRegistry registry) throws IOException {
         super(name, settings);
-        this.analyzer = new TibetanAnalyzer();
+        int chunkSize = TibetanAnalysisSettings.chunkSize(settings, name);
+        TibetanDictionaryRegistry.Handle handle = TibetanAnalysisSettings.acquireDictionary(registry, env, settings);
+        this.analyzer = new TibetanAnalyzer(handle, TibetanAnalysisSettings.createTokenizer(handle, indexSettings, settings, name), chunkSize);
     }
     
     @Override
@@ -15,24 +15,140 @@
 
 package org.tocharian;
 
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.analysis.AnalyzerProvider;
+import org.elasticsearch.index.analysis.CharFilterFactory;
+import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.elasticsearch.index.analysis.TokenizerFactory;
+import org.elasticsearch.index.shard.IndexEventListener;
 import org.elasticsearch.indices.analysis.AnalysisModule.AnalysisProvider;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService.AllocatedIndices.IndexRemovalReason;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import static java.util.Collections.singletonMap;
 
 /**
  * Tibetan analyzer plugin for Elasticsearch
- * Provides Tibetan language text analysis and tokenization
+ * Provides Tibetan language text analysis and tokenization, the
+ * _tibetan/segment endpoint for segmenting many texts in one request and
+ * the _tibetan/stats endpoint
  */
-public class TibetanAnalyzerPlugin extends Plugin implements AnalysisPlugin {
+public class TibetanAnalyzerPlugin extends Plugin implements AnalysisPlugin, ActionPlugin {
+    
+    static final String SEGMENT_THREAD_POOL = "tibetan_segment";
+    static final int SEGMENT_QUEUE_SIZE = 1000;
+    
+    private final TibetanDictionaryRegistry dictionaryRegistry = new TibetanDictionaryRegistry();
     
     @Override
     public Map<String, AnalysisProvider<AnalyzerProvider<?>>> getAnalyzers() {
-        return singletonMap("tibetan_analyzer", TibetanAnalyzerFactory::new);
+        return singletonMap("tibetan_analyzer", (indexSettings, env, name, settings) ->
+            new TibetanAnalyzerFactory(indexSettings, env, name, settings, dictionaryRegistry));
+    }
+    
+    @Override
+    public Map<String, AnalysisProvider<CharFilterFactory>> getCharFilters() {
+        return singletonMap("tibetan_normalize", TibetanNormalizeCharFilterFactory::new);
+    }
+    
+    @Override
+    public Map<String, AnalysisProvider<TokenizerFactory>> getTokenizers() {
+        return singletonMap("tibetan_tokenizer", (indexSettings, env, name, settings) ->
+            new TibetanTokenizerFactory(indexSettings, env, name, settings, dictionaryRegistry));
+    }
+    
+    @Override
+    public Map<String, AnalysisProvider<TokenFilterFactory>> getTokenFilters() {
+        Map<String, AnalysisProvider<TokenFilterFactory>> filters = new HashMap<>();
+        filters.put("tibetan_segment", (indexSettings, env, name, settings) ->
+            new TibetanSegmentTokenFilterFactory(indexSettings, env, name, settings, dictionaryRegistry));
+        filters.put("tibetan_normalize", TibetanNormalizeTokenFilterFactory::new);
+        filters.put("tibetan_stop", (indexSettings, env, name, settings) ->
+            new TibetanStopTokenFilterFactory(indexSettings, env, name, settings, dictionaryRegistry));
+        filters.put("tibetan_syllable_shingle", TibetanSyllableShingleTokenFilterFactory::new);
+        filters.put("tibetan_edge_syllables", TibetanEdgeSyllablesTokenFilterFactory::new);
+        return filters;
+    }
+    
+    /**
+     * Release the dictionaries of an index's analysis factories when the
+     * index is closed or removed from the node. Factories are keyed by the
+     * IndexSettings instance they were built with, which is unique to one
+     * IndexService, so a temporary service for the same index does not
+     * release the handles of the live one.
+     */
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        indexModule.addIndexEventListener(new IndexEventListener() {
+            @Override
+            public void afterIndexRemoved(Index index, IndexSettings indexSettings, IndexRemovalReason reason) {
+                dictionaryRegistry.closeAll(indexSettings);
+            }
+        });
+    }
+    
+    @Override
+    public List<Setting<?>> getSettings() {
+        return List.of(RestTibetanSegmentAction.MAX_TEXTS, RestTibetanSegmentAction.MAX_CHARS);
+    }
+    
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        return List.of(new FixedExecutorBuilder(settings, SEGMENT_THREAD_POOL,
+            segmentThreadPoolSize(settings), SEGMENT_QUEUE_SIZE, false));
+    }
+    
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController,
+                                             ClusterSettings clusterSettings, IndexScopedSettings indexScopedSettings,
+                                             SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return List.of(new RestTibetanSegmentAction(settings, dictionaryRegistry),
+            new RestTibetanStatsAction(nodesInCluster, dictionaryRegistry));
+    }
+    
+    /**
+     * Size of the tibetan_segment thread pool: one thread per allocated processor
+     */
+    static int segmentThreadPoolSize(Settings settings) {
+        return EsExecutors.allocatedProcessors(settings);
+    }
+    
+    /**
+     * Get the node-level dictionary registry shared by all indices
+     */
+    public TibetanDictionaryRegistry getDictionaryRegistry() {
+        return dictionaryRegistry;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        dictionaryRegistry.clear();
+        super.close();
     }
 }
 
@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.tocharian.tibetan.TibetanSyllables;
+import org.tocharian.tibetan.utils.TibetanCharacterUtils;
+
+import java.io.IOException;
+
+/**
+ * Tibetan edge syllables filter
+ * Replaces each Tibetan token with its prefixes of whole syllables, e.g.
+ * བཀྲ and བཀྲ་ཤིས for བཀྲ་ཤིས, all at the position and offsets of the token,
+ * as edge_ngram does with characters. Prefixes end at the first shad or
+ * other non-Tibetan character of the token. Tokens with fewer syllables
+ * than the minimum are dropped unless the original is preserved; tokens
+ * without Tibetan letters pass through unchanged.
+ */
+public final class TibetanEdgeSyllablesFilter extends TokenFilter {
+    
+    private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncrAttr = addAttribute(PositionIncrementAttribute.class);
+    private final int minGram;
+    private final int maxGram;
+    private final boolean preserveOriginal;
+    
+    private final TibetanSyllables syllables = new TibetanSyllables();
+    private char[] buffer = new char[64];
+    private State inputState;
+    private int gram;               // Syllables of the next prefix
+    private int lastGram;           // Syllables of the longest prefix
+    private boolean originalPending;
+    private int positionIncrement;  // Increment of the next token, including dropped tokens
+    
+    public TibetanEdgeSyllablesFilter(TokenStream input, int minGram, int maxGram, boolean preserveOriginal) {
+        super(input);
+        this.minGram = minGram;
+        this.maxGram = maxGram;
+        this.preserveOriginal = preserveOriginal;
+    }
+    
+    @Override
+    public boolean incrementToken() throws IOException {
+        while (true) {
+            if (inputState != null) {
+                if (gram <= lastGram) {
+                    restoreState(inputState);
+                    int start = syllables.start(0);
+                    termAttr.copyBuffer(buffer, start, syllables.end(gram - 1) - start);
+                    setPositionIncrement();
+                    gram++;
+                    return true;
+                }
+                if (originalPending) {
+                    restoreState(inputState);
+                    setPositionIncrement();
+                    originalPending = false;
+                    return true;
+                }
+                inputState = null;
+            }
+            
+            if (!input.incrementToken()) {
+                return false;
+            }
+            int length = termAttr.length();
+            if (length > buffer.length) {
+                buffer = ArrayUtil.grow(buffer, length);
+            }
+            System.arraycopy(termAttr.buffer(), 0, buffer, 0, length);
+            TibetanCharacterUtils.normalizeTsheg(buffer, 0, length);
+            
+            positionIncrement += posIncrAttr.getPositionIncrement();
+            if (syllables.split(buffer, 0, length) == 0) {
+                setPositionIncrement();
+                return true;
+            }
+            
+            // Prefixes stay within the first run of syllables
+            gram = minGram;
+            lastGram = Math.min(maxGram, syllables.runEnd(0));
+            int longest = syllables.end(lastGram - 1);
+            originalPending = preserveOriginal && !(gram <= lastGram && syllables.start(0) == 0 && longest == length);
+            if (gram <= lastGram || originalPending) {
+                inputState = captureState();
+            }
+        }
+    }
+    
+    /**
+     * Set the increment of an emitted token: the first token of an input
+     * token takes its increment and those of dropped tokens, the rest 0
+     */
+    private void setPositionIncrement() {
+        posIncrAttr.setPositionIncrement(positionIncrement);
+        positionIncrement = 0;
+    }
+    
+    @Override
+    public void end() throws IOException {
+        super.end();
+        posIncrAttr.setPositionIncrement(posIncrAttr.getPositionIncrement() + positionIncrement);
+    }
+    
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        inputState = null;
+        originalPending = false;
+        positionIncrement = 0;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+import org.tocharian.tibetan.TibetanTokenizer;
+
+/**
+ * Factory for the tibetan_edge_syllables token filter
+ * Meant for the index analyzer of an autocomplete field, after the Tibetan
+ * segmenter; the search analyzer segments without it, so a typed prefix
+ * of whole syllables is looked up as one term.
+ */
+public class TibetanEdgeSyllablesTokenFilterFactory extends AbstractTokenFilterFactory {
+    
+    static final String MIN_GRAM = "min_gram";
+    static final String MAX_GRAM = "max_gram";
+    static final String PRESERVE_ORIGINAL = "preserve_original";
+    
+    private final int minGram;
+    private final int maxGram;
+    private final boolean preserveOriginal;
+    
+    public TibetanEdgeSyllablesTokenFilterFactory(IndexSettings indexSettings, Environment env,
+                                                  String name, Settings settings) {
+        super(name, settings);
+        this.minGram = settings.getAsInt(MIN_GRAM, 1);
+        this.maxGram = settings.getAsInt(MAX_GRAM, TibetanTokenizer.DEFAULT_MAX_SYLLABLES);
+        this.preserveOriginal = settings.getAsBoolean(PRESERVE_ORIGINAL, false);
+        if (minGram < 1 || maxGram < minGram || maxGram > TibetanTokenizer.MAX_SYLLABLES_LIMIT) {
+            throw new IllegalArgumentException("[" + MIN_GRAM + "] and [" + MAX_GRAM
+                + "] must satisfy 1 <= min <= max <= " + TibetanTokenizer.MAX_SYLLABLES_LIMIT + " for [" + name + "]");
+        }
+    }
+    
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        return new TibetanEdgeSyllablesFilter(tokenStream, minGram, maxGram, preserveOriginal);
+    }
+}
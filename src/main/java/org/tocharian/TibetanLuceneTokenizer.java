@@ -19,84 +19,136 @@ import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 import org.tocharian.tibetan.TibetanTokenizer;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.util.List;
 
 /**
  * Lucene Tokenizer for Tibetan text
  * Uses TibetanTokenizer to perform word segmentation
+ * The input is streamed through a fixed-size buffer: each chunk is
+ * segmented up to its last safe boundary and the rest is carried over to
+ * the next chunk, so memory is bounded by the chunk size rather than the
+ * document size. Tokens are kept as offsets into the buffer and copied
+ * straight into the term attribute.
+ * Offsets are exact: they come from the segmentation itself, which never
+ * changes the length of the text, and are only passed through
+ * correctOffset for preceding char filters. An ashung root spans its
+ * source characters only, without the reconstructed འ.
+ * In search mode a word of several syllables spans the positions of the
+ * sub-words that follow it, so the stream is a token graph.
  */
 public class TibetanLuceneTokenizer extends Tokenizer {
     
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+    
     private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
     private final OffsetAttribute offsetAttr = addAttribute(OffsetAttribute.class);
     private final PositionIncrementAttribute posIncrAttr = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute posLenAttr = addAttribute(PositionLengthAttribute.class);
+    private final TypeAttribute typeAttr = addAttribute(TypeAttribute.class);
     
     private final TibetanTokenizer tibetanTokenizer;
-    private List<String> tokens;
+    private final TibetanTokenBuffer tokens = new TibetanTokenBuffer();
+    private final char[] buffer;
+    private int length;            // Chars currently in the buffer
+    private int bufferOffset;      // Offset of buffer[0] in the input
+    private int consumed;          // Chars of the buffer covered by the current tokens
+    private boolean endOfInput;
     private int tokenIndex;
-    private String inputText;
-    private int currentOffset;
     
     public TibetanLuceneTokenizer(TibetanTokenizer tibetanTokenizer) {
+        this(tibetanTokenizer, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * @param chunkSize Size of the read buffer, in chars
+     */
+    public TibetanLuceneTokenizer(TibetanTokenizer tibetanTokenizer, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive, got " + chunkSize);
+        }
         this.tibetanTokenizer = tibetanTokenizer;
+        this.buffer = new char[chunkSize];
     }
     
     @Override
     public final boolean incrementToken() throws IOException {
         clearAttributes();
         
-        // Initialize on first call
-        if (tokens == null) {
-            // Read entire input
-            StringBuilder sb = new StringBuilder();
-            char[] buffer = new char[8192];
-            int numRead;
-            Reader inputReader = input;
-            while ((numRead = inputReader.read(buffer)) != -1) {
-                sb.append(buffer, 0, numRead);
+        // Segment the next chunk once the tokens of the previous one are used up
+        while (tokenIndex >= tokens.size) {
+            if (!nextChunk()) {
+                return false;
             }
-            inputText = sb.toString();
-            
-            // Tokenize using Tibetan tokenizer
-            tokens = tibetanTokenizer.tokenize(inputText);
-            tokenIndex = 0;
-            currentOffset = 0;
         }
         
         // Return next token
-        if (tokenIndex < tokens.size()) {
-            String token = tokens.get(tokenIndex);
-            
-            // Find token position in original text
-            int startOffset = inputText.indexOf(token, currentOffset);
-            if (startOffset == -1) {
-                startOffset = currentOffset;
+        int start = tokens.starts[tokenIndex];
+        int end = tokens.ends[tokenIndex];
+        
+        tokens.copyTerm(tokenIndex, buffer, termAttr);
+        offsetAttr.setOffset(correctOffset(bufferOffset + start), correctOffset(bufferOffset + end));
+        posIncrAttr.setPositionIncrement(tokens.positionIncrements[tokenIndex]);
+        posLenAttr.setPositionLength(tokens.positionLengths[tokenIndex]);
+        typeAttr.setType(tokens.type(tokenIndex));
+        
+        tokenIndex++;
+        return true;
+    }
+    
+    /**
+     * Drop the consumed part of the buffer, refill it and segment it
+     * @return false once the input is exhausted
+     */
+    private boolean nextChunk() throws IOException {
+        if (consumed > 0) {
+            System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+            length -= consumed;
+            bufferOffset += consumed;
+        }
+        if (endOfInput && length == 0) {
+            return false;
+        }
+        
+        while (!endOfInput && length < buffer.length) {
+            int numRead = input.read(buffer, length, buffer.length - length);
+            if (numRead == -1) {
+                endOfInput = true;
+            } else {
+                length += numRead;
             }
-            int endOffset = startOffset + token.length();
-            
-            termAttr.append(token);
-            offsetAttr.setOffset(correctOffset(startOffset), correctOffset(endOffset));
-            posIncrAttr.setPositionIncrement(1);
-            
-            currentOffset = endOffset;
-            tokenIndex++;
-            return true;
         }
         
-        return false;
+        tokens.clear();
+        consumed = tibetanTokenizer.tokenize(buffer, 0, length, endOfInput, tokens);
+        if (consumed == 0 && length == buffer.length) {
+            // A single run longer than the buffer: cut it rather than grow
+            consumed = tibetanTokenizer.tokenize(buffer, 0, length, true, tokens);
+        }
+        tokenIndex = 0;
+        return true;
+    }
+    
+    @Override
+    public void end() throws IOException {
+        super.end();
+        tibetanTokenizer.endDocument(tokens);
+        // The input is fully read once incrementToken has returned false
+        int finalOffset = correctOffset(bufferOffset + length);
+        offsetAttr.setOffset(finalOffset, finalOffset);
     }
     
     @Override
     public void reset() throws IOException {
         super.reset();
-        tokens = null;
+        tokens.clear();
+        consumed = 0;
         tokenIndex = 0;
-        currentOffset = 0;
-        inputText = null;
+        length = 0;
+        bufferOffset = 0;
+        endOfInput = false;
     }
 }
-
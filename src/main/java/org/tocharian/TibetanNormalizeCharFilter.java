@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.CharFilter;
+import org.tocharian.tibetan.utils.TibetanNormalizer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Tibetan normalize char filter
+ * Streams the input through TibetanNormalizer, so text is normalized once,
+ * ahead of the tokenizer, and token offsets are mapped back to the source
+ */
+public class TibetanNormalizeCharFilter extends CharFilter {
+    
+    private static final int BUFFER_SIZE = 1024;
+    
+    private final TibetanNormalizer normalizer = new TibetanNormalizer();
+    private final char[] inputBuffer = new char[BUFFER_SIZE];
+    private final char[] outputBuffer = new char[BUFFER_SIZE + 2];
+    private int outputPosition;
+    private int outputLength;
+    private boolean finished;
+    
+    public TibetanNormalizeCharFilter(Reader input) {
+        super(input);
+    }
+    
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        while (outputPosition >= outputLength) {
+            if (finished) {
+                return -1;
+            }
+            int read = input.read(inputBuffer, 0, inputBuffer.length);
+            outputPosition = 0;
+            if (read == -1) {
+                outputLength = normalizer.finish(outputBuffer, 0);
+                finished = true;
+            } else {
+                outputLength = normalizer.normalize(inputBuffer, 0, read, outputBuffer, 0);
+            }
+        }
+        
+        int count = Math.min(len, outputLength - outputPosition);
+        System.arraycopy(outputBuffer, outputPosition, cbuf, off, count);
+        outputPosition += count;
+        return count;
+    }
+    
+    @Override
+    protected int correct(int currentOff) {
+        return normalizer.correctOffset(currentOff);
+    }
+}
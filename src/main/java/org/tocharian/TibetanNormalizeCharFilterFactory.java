@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.NormalizingCharFilterFactory;
+
+import java.io.Reader;
+
+/**
+ * Factory for the tibetan_normalize char filter
+ * Also usable in normalizers, e.g. for keyword fields holding Tibetan text
+ */
+public class TibetanNormalizeCharFilterFactory implements NormalizingCharFilterFactory {
+    
+    private final String name;
+    
+    public TibetanNormalizeCharFilterFactory(IndexSettings indexSettings, Environment env,
+                                             String name, Settings settings) {
+        this.name = name;
+    }
+    
+    @Override
+    public String name() {
+        return name;
+    }
+    
+    @Override
+    public Reader create(Reader reader) {
+        return new TibetanNormalizeCharFilter(reader);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.tocharian.tibetan.utils.TibetanNormalizer;
+
+import java.io.IOException;
+
+/**
+ * Tibetan normalize filter
+ * Applies TibetanNormalizer to each term in place, so terms from other
+ * tokenizers match the dictionary and the segmented terms. Offsets keep
+ * spanning the whole original token.
+ */
+public final class TibetanNormalizeFilter extends TokenFilter {
+    
+    private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
+    private final TibetanNormalizer normalizer = new TibetanNormalizer();
+    
+    public TibetanNormalizeFilter(TokenStream input) {
+        super(input);
+    }
+    
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (!input.incrementToken()) {
+            return false;
+        }
+        char[] buffer = termAttr.buffer();
+        normalizer.reset();
+        int length = normalizer.normalize(buffer, 0, termAttr.length(), buffer, 0);
+        termAttr.setLength(length + normalizer.finish(buffer, length));
+        return true;
+    }
+}
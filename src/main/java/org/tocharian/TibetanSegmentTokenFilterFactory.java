@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+import org.elasticsearch.index.analysis.AnalysisMode;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+import org.tocharian.tibetan.TibetanTokenizer;
+
+import java.io.IOException;
+
+/**
+ * Factory for the tibetan_segment token filter
+ * Segments the tokens of another tokenizer, e.g. whitespace or ICU
+ * With updateable set, the filter is search-time only and picks up changes
+ * to its user dictionary through the _reload_search_analyzers API
+ */
+public class TibetanSegmentTokenFilterFactory extends AbstractTokenFilterFactory {
+    
+    private final TibetanTokenizer tibetanTokenizer;
+    private final AnalysisMode analysisMode;
+    
+    public TibetanSegmentTokenFilterFactory(IndexSettings indexSettings, Environment env,
+                                            String name, Settings settings,
+                                            TibetanDictionaryRegistry registry) throws IOException {
+        super(name, settings);
+        this.analysisMode = TibetanAnalysisSettings.analysisMode(settings);
+        TibetanDictionaryRegistry.Handle handle = TibetanAnalysisSettings.acquireDictionary(registry, env, settings)
+            .closeWith(indexSettings, this);
+        this.tibetanTokenizer = TibetanAnalysisSettings.createTokenizer(handle, indexSettings, settings, name);
+    }
+    
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        return new TibetanTokenFilter(tokenStream, tibetanTokenizer);
+    }
+    
+    @Override
+    public AnalysisMode getAnalysisMode() {
+        return analysisMode;
+    }
+}
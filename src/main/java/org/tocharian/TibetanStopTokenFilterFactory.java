@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.tocharian;
+
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.commongrams.CommonGramsFilter;
+import org.apache.lucene.analysis.commongrams.CommonGramsQueryFilter;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+import org.tocharian.tibetan.TibetanDictionaryManager;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Factory for the tibetan_stop token filter
+ * Removes the particles of the bundled dictionary and the grammatical
+ * suffixes split off words, keeping position gaps. In common grams mode
+ * they are kept and also joined with their neighbors into grams, so
+ * phrase queries avoid the long posting lists of the particles.
+ */
+public class TibetanStopTokenFilterFactory extends AbstractTokenFilterFactory {
+    
+    static final String SUFFIXES = "suffixes";
+    static final String COMMON_GRAMS = "common_grams";
+    static final String QUERY_MODE = "query_mode";
+    
+    private final CharArraySet stopWords;
+    private final boolean commonGrams;
+    private final boolean queryMode;
+    
+    public TibetanStopTokenFilterFactory(IndexSettings indexSettings, Environment env,
+                                         String name, Settings settings,
+                                         TibetanDictionaryRegistry registry) throws IOException {
+        super(name, settings);
+        this.commonGrams = settings.getAsBoolean(COMMON_GRAMS, false);
+        this.queryMode = settings.getAsBoolean(QUERY_MODE, false);
+        if (queryMode && !commonGrams) {
+            throw new IllegalArgumentException("[" + QUERY_MODE + "] requires [" + COMMON_GRAMS + "] for [" + name + "]");
+        }
+        
+        // Held as long as the factory, so that building factories does not load
+        // the default dictionary again whenever nothing else holds it
+        TibetanDictionaryManager dictionary = registry.acquireDefault().closeWith(indexSettings, this).get();
+        Set<String> words = new HashSet<>(dictionary.getParticles());
+        if (settings.getAsBoolean(SUFFIXES, true)) {
+            words.addAll(dictionary.getSuffixes());
+        }
+        this.stopWords = CharArraySet.unmodifiableSet(new CharArraySet(words, false));
+    }
+    
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        if (!commonGrams) {
+            return new StopFilter(tokenStream, stopWords);
+        }
+        CommonGramsFilter grams = new CommonGramsFilter(tokenStream, stopWords);
+        return queryMode ? new CommonGramsQueryFilter(grams) : grams;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.tocharian.tibetan.TibetanSyllables;
+import org.tocharian.tibetan.utils.TibetanCharacterUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tibetan syllable shingle filter
+ * Replaces each Tibetan token with the shingles of its syllables, split at
+ * tsheg, so a substring of whole syllables is found with term and phrase
+ * queries rather than a wildcard. Shingles never span a shad or another
+ * non-Tibetan character; a run shorter than the minimum size is kept
+ * whole. With unigrams, shingles start at the position of their first
+ * syllable and span their syllables' positions, as in cjk_bigram. Tokens
+ * without Tibetan letters pass through unchanged.
+ */
+public final class TibetanSyllableShingleFilter extends TokenFilter {
+    
+    static final String SHINGLE_TYPE = "shingle";
+    static final String SYLLABLE_TYPE = "syllable";
+    
+    private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAttr = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute posIncrAttr = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute posLenAttr = addAttribute(PositionLengthAttribute.class);
+    private final TypeAttribute typeAttr = addAttribute(TypeAttribute.class);
+    private final int minShingleSize;
+    private final int maxShingleSize;
+    private final boolean outputUnigrams;
+    
+    private final TibetanSyllables syllables = new TibetanSyllables();
+    private char[] buffer = new char[64];
+    private int[] gramStarts = new int[16];     // First syllable of each shingle
+    private int[] gramSizes = new int[16];      // Syllables of each shingle
+    private int[] positionIncrements = new int[16];
+    private int gramCount;
+    private int gramIndex;
+    private State inputState;
+    private int currentStartOffset;
+    private int currentEndOffset;
+    private boolean exactOffsets;
+    
+    public TibetanSyllableShingleFilter(TokenStream input, int minShingleSize, int maxShingleSize, boolean outputUnigrams) {
+        super(input);
+        this.minShingleSize = minShingleSize;
+        this.maxShingleSize = maxShingleSize;
+        this.outputUnigrams = outputUnigrams;
+    }
+    
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (gramIndex < gramCount) {
+            restoreState(inputState);
+            int first = gramStarts[gramIndex];
+            int last = first + gramSizes[gramIndex] - 1;
+            int start = syllables.start(first);
+            int end = syllables.end(last);
+            termAttr.copyBuffer(buffer, start, end - start);
+            typeAttr.setType(gramSizes[gramIndex] == 1 ? SYLLABLE_TYPE : SHINGLE_TYPE);
+            
+            if (exactOffsets) {
+                offsetAttr.setOffset(currentStartOffset + start, currentStartOffset + end);
+            }
+            if (gramIndex > 0) {
+                posIncrAttr.setPositionIncrement(positionIncrements[gramIndex]);
+            }
+            posLenAttr.setPositionLength(outputUnigrams ? gramSizes[gramIndex] : 1);
+            
+            gramIndex++;
+            return true;
+        }
+        
+        if (!input.incrementToken()) {
+            return false;
+        }
+        int length = termAttr.length();
+        if (length > buffer.length) {
+            buffer = ArrayUtil.grow(buffer, length);
+        }
+        System.arraycopy(termAttr.buffer(), 0, buffer, 0, length);
+        TibetanCharacterUtils.normalizeTsheg(buffer, 0, length);
+        
+        gramCount = 0;
+        gramIndex = 0;
+        if (syllables.split(buffer, 0, length) == 0) {
+            return true;
+        }
+        collectShingles();
+        
+        inputState = captureState();
+        currentStartOffset = offsetAttr.startOffset();
+        currentEndOffset = offsetAttr.endOffset();
+        exactOffsets = currentEndOffset - currentStartOffset == length;
+        return incrementToken();
+    }
+    
+    /**
+     * List the shingles of the syllables, by start position and then size
+     */
+    private void collectShingles() {
+        for (int i = 0; i < syllables.size(); i++) {
+            int available = syllables.runEnd(i) - i;
+            int increment = 1;
+            if (outputUnigrams) {
+                add(i, 1, increment);
+                increment = 0;
+            } else if (available < minShingleSize && (i == 0 || syllables.runEnd(i - 1) == i)) {
+                add(i, available, increment);
+                continue;
+            }
+            for (int size = Math.max(minShingleSize, 2); size <= Math.min(maxShingleSize, available); size++) {
+                add(i, size, increment);
+                increment = 0;
+            }
+        }
+    }
+    
+    private void add(int start, int size, int positionIncrement) {
+        if (gramCount == gramStarts.length) {
+            gramStarts = ArrayUtil.grow(gramStarts, gramCount + 1);
+            gramSizes = Arrays.copyOf(gramSizes, gramStarts.length);
+            positionIncrements = Arrays.copyOf(positionIncrements, gramStarts.length);
+        }
+        gramStarts[gramCount] = start;
+        gramSizes[gramCount] = size;
+        positionIncrements[gramCount] = positionIncrement;
+        gramCount++;
+    }
+    
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        inputState = null;
+        gramCount = 0;
+        gramIndex = 0;
+        currentStartOffset = 0;
+        currentEndOffset = 0;
+    }
+}
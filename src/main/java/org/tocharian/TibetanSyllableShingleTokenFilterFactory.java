@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+
+/**
+ * Factory for the tibetan_syllable_shingle token filter
+ * Meant for a subfield whose analyzer splits on whitespace only, so that
+ * shingles follow the syllables of the text rather than its segmentation.
+ */
+public class TibetanSyllableShingleTokenFilterFactory extends AbstractTokenFilterFactory {
+    
+    static final String MIN_SHINGLE_SIZE = "min_shingle_size";
+    static final String MAX_SHINGLE_SIZE = "max_shingle_size";
+    static final String OUTPUT_UNIGRAMS = "output_unigrams";
+    
+    static final int MAX_SHINGLE_SIZE_LIMIT = 8;
+    
+    private final int minShingleSize;
+    private final int maxShingleSize;
+    private final boolean outputUnigrams;
+    
+    public TibetanSyllableShingleTokenFilterFactory(IndexSettings indexSettings, Environment env,
+                                                    String name, Settings settings) {
+        super(name, settings);
+        this.minShingleSize = settings.getAsInt(MIN_SHINGLE_SIZE, 2);
+        this.maxShingleSize = settings.getAsInt(MAX_SHINGLE_SIZE, Math.max(minShingleSize, 2));
+        this.outputUnigrams = settings.getAsBoolean(OUTPUT_UNIGRAMS, false);
+        if (minShingleSize < 2 || maxShingleSize < minShingleSize || maxShingleSize > MAX_SHINGLE_SIZE_LIMIT) {
+            throw new IllegalArgumentException("[" + MIN_SHINGLE_SIZE + "] and [" + MAX_SHINGLE_SIZE
+                + "] must satisfy 2 <= min <= max <= " + MAX_SHINGLE_SIZE_LIMIT + " for [" + name + "]");
+        }
+    }
+    
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        return new TibetanSyllableShingleFilter(tokenStream, minShingleSize, maxShingleSize, outputUnigrams);
+    }
+}
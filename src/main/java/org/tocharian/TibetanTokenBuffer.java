@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.tocharian.tibetan.TibetanTokenSink;
+import org.tocharian.tibetan.TibetanTokenizer;
+
+import java.util.Arrays;
+
+/**
+ * Token offsets collected from TibetanTokenizer
+ * Offsets point into the buffer that was tokenized; the arrays are reused
+ * across chunks and documents
+ */
+class TibetanTokenBuffer extends TibetanTokenSink {
+    
+    private static final char ASHUNG = 'འ';
+    
+    int[] starts = new int[64];
+    int[] ends = new int[64];
+    boolean[] ashung = new boolean[64];
+    int[] types = new int[64];
+    int[] positionIncrements = new int[64];
+    int[] positionLengths = new int[64];
+    int size;
+    
+    @Override
+    public void token(char[] text, int start, int end, boolean isAshung, int type) {
+        token(text, start, end, isAshung, type, 1, 1);
+    }
+    
+    @Override
+    public void token(char[] text, int start, int end, boolean isAshung, int type,
+                      int positionIncrement, int positionLength) {
+        if (size == starts.length) {
+            starts = ArrayUtil.grow(starts, size + 1);
+            ends = Arrays.copyOf(ends, starts.length);
+            ashung = Arrays.copyOf(ashung, starts.length);
+            types = Arrays.copyOf(types, starts.length);
+            positionIncrements = Arrays.copyOf(positionIncrements, starts.length);
+            positionLengths = Arrays.copyOf(positionLengths, starts.length);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        ashung[size] = isAshung;
+        types[size] = type;
+        positionIncrements[size] = positionIncrement;
+        positionLengths[size] = positionLength;
+        size++;
+    }
+    
+    /**
+     * Copy the text of a token into a term attribute
+     */
+    void copyTerm(int index, char[] text, CharTermAttribute termAttr) {
+        termAttr.copyBuffer(text, starts[index], ends[index] - starts[index]);
+        if (ashung[index]) {
+            termAttr.append(ASHUNG);
+        }
+    }
+    
+    /**
+     * Get the type of a token, as set in a TypeAttribute
+     */
+    String type(int index) {
+        return TibetanTokenizer.TOKEN_TYPES[types[index]];
+    }
+    
+    /**
+     * Check if a token is Tibetan, rather than text of another script
+     */
+    boolean isTibetan(int index) {
+        return types[index] < TibetanTokenizer.ALPHANUM;
+    }
+    
+    void clear() {
+        size = 0;
+    }
+}
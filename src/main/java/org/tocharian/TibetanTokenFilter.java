@@ -19,25 +19,38 @@ import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
 import org.tocharian.tibetan.TibetanTokenizer;
 
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Tibetan token filter
  * Processes tokens from input stream and applies Tibetan tokenization
+ * Sub-tokens get exact offsets inside the input token when its offsets span
+ * exactly its term; otherwise (e.g. after a filter changed the term) they
+ * keep the offsets of the whole input token. In search mode the sub-words
+ * of a word follow it as a token graph.
  */
 public class TibetanTokenFilter extends TokenFilter {
     
     private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
     private final OffsetAttribute offsetAttr = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute posIncrAttr = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute posLenAttr = addAttribute(PositionLengthAttribute.class);
+    private final TypeAttribute typeAttr = addAttribute(TypeAttribute.class);
     private final TibetanTokenizer tibetanTokenizer;
     
-    private List<String> currentTokens;
+    private final TibetanTokenBuffer currentTokens = new TibetanTokenBuffer();
+    private char[] buffer = new char[64];
+    private State inputState;
     private int currentTokenIndex;
     private int currentStartOffset;
     private int currentEndOffset;
+    private boolean exactOffsets;
     
     public TibetanTokenFilter(TokenStream input, TibetanTokenizer tokenizer) {
         super(input);
@@ -47,15 +60,21 @@ public class TibetanTokenFilter extends TokenFilter {
     @Override
     public final boolean incrementToken() throws IOException {
         // If we have tokens from previous segmentation, output them
-        if (currentTokens != null && currentTokenIndex < currentTokens.size()) {
-            clearAttributes();
-            String token = currentTokens.get(currentTokenIndex);
-            termAttr.append(token);
+        if (currentTokenIndex < currentTokens.size) {
+            restoreState(inputState);
+            currentTokens.copyTerm(currentTokenIndex, buffer, termAttr);
+            typeAttr.setType(currentTokens.type(currentTokenIndex));
             
-            // Calculate offsets (approximate)
-            int tokenLength = token.length();
-            offsetAttr.setOffset(currentStartOffset, currentStartOffset + tokenLength);
-            currentStartOffset += tokenLength;
+            if (exactOffsets) {
+                offsetAttr.setOffset(currentStartOffset + currentTokens.starts[currentTokenIndex],
+                    currentStartOffset + currentTokens.ends[currentTokenIndex]);
+            } else {
+                offsetAttr.setOffset(currentStartOffset, currentEndOffset);
+            }
+            if (currentTokenIndex > 0) {
+                posIncrAttr.setPositionIncrement(currentTokens.positionIncrements[currentTokenIndex]);
+            }
+            posLenAttr.setPositionLength(currentTokens.positionLengths[currentTokenIndex]);
             
             currentTokenIndex++;
             return true;
@@ -63,44 +82,55 @@ public class TibetanTokenFilter extends TokenFilter {
         
         // Get next token from input
         if (input.incrementToken()) {
-            String inputToken = termAttr.toString();
-            int startOffset = offsetAttr.startOffset();
-            int endOffset = offsetAttr.endOffset();
+            int length = termAttr.length();
+            if (length > buffer.length) {
+                buffer = ArrayUtil.grow(buffer, length);
+            }
+            System.arraycopy(termAttr.buffer(), 0, buffer, 0, length);
             
             // Tokenize using Tibetan tokenizer
-            List<String> tokens = tibetanTokenizer.tokenize(inputToken);
+            currentTokens.clear();
+            currentTokenIndex = 0;
+            tibetanTokenizer.tokenize(buffer, 0, length, true, currentTokens);
             
-            if (tokens != null && !tokens.isEmpty()) {
-                if (tokens.size() == 1) {
-                    // Single token, just pass through
-                    return true;
-                } else {
-                    // Multiple tokens, save for incremental output
-                    currentTokens = tokens;
-                    currentTokenIndex = 0;
-                    currentStartOffset = startOffset;
-                    currentEndOffset = endOffset;
-                    
-                    // Output first token
-                    return incrementToken();
+            if (currentTokens.size <= 1) {
+                // Single token or no tokens produced, pass through original,
+                // typed from the dictionary if it is a Tibetan word
+                if (currentTokens.size == 1 && currentTokens.isTibetan(0)) {
+                    typeAttr.setType(currentTokens.type(0));
                 }
-            } else {
-                // No tokens produced, pass through original
+                currentTokens.clear();
                 return true;
             }
+            
+            // Multiple tokens, save for incremental output
+            inputState = captureState();
+            currentStartOffset = offsetAttr.startOffset();
+            currentEndOffset = offsetAttr.endOffset();
+            exactOffsets = currentEndOffset - currentStartOffset == length;
+            
+            // Output first token
+            return incrementToken();
         }
         
         // No more input tokens
         return false;
     }
     
+    @Override
+    public void end() throws IOException {
+        super.end();
+        // The stream is one document for the stats, however many tokens it had
+        tibetanTokenizer.endDocument(currentTokens);
+    }
+    
     @Override
     public void reset() throws IOException {
         super.reset();
-        currentTokens = null;
+        currentTokens.clear();
+        inputState = null;
         currentTokenIndex = 0;
         currentStartOffset = 0;
         currentEndOffset = 0;
     }
 }
-
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AbstractTokenizerFactory;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+import org.tocharian.tibetan.TibetanTokenizer;
+
+import java.io.IOException;
+
+/**
+ * Factory for the tibetan_tokenizer component
+ * Segments Tibetan text on its own, so it can be combined with any token filters
+ */
+public class TibetanTokenizerFactory extends AbstractTokenizerFactory {
+    
+    private final TibetanTokenizer tibetanTokenizer;
+    private final int chunkSize;
+    
+    public TibetanTokenizerFactory(IndexSettings indexSettings, Environment env,
+                                   String name, Settings settings,
+                                   TibetanDictionaryRegistry registry) throws IOException {
+        super(indexSettings, settings, name);
+        this.chunkSize = TibetanAnalysisSettings.chunkSize(settings, name);
+        TibetanDictionaryRegistry.Handle handle = TibetanAnalysisSettings.acquireDictionary(registry, env, settings)
+            .closeWith(indexSettings, this);
+        this.tibetanTokenizer = TibetanAnalysisSettings.createTokenizer(handle, indexSettings, settings, name);
+    }
+    
+    @Override
+    public Tokenizer create() {
+        return new TibetanLuceneTokenizer(tibetanTokenizer, chunkSize);
+    }
+}
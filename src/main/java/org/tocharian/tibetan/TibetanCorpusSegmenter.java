@@ -0,0 +1,732 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.tocharian.tibetan.utils.TibetanNormalizer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Offline segmentation of large corpora, outside Elasticsearch
+ * Input is plain text or NDJSON, one document per line. Files are memory
+ * mapped and cut into batches of whole lines, which are segmented on all
+ * cores and written back in input order, so the output is deterministic
+ * and can serve as a golden file.
+ *
+ * Plain text lines become {"tokens":[...]}. NDJSON lines get a
+ * "field_tokens" array for each top-level string field segmented, replacing
+ * any existing member of that name; other lines, e.g. bulk action lines,
+ * and blank lines are copied unchanged. A malformed line, including one
+ * with content after its object, fails the run with its line number, or with
+ * --skip-malformed is copied unchanged and logged. With --analyze each
+ * token is an object with the same keys as the _analyze API response.
+ */
+public final class TibetanCorpusSegmenter {
+    
+    static final int BATCH_BYTES = 1 << 20;
+    private static final long REGION_BYTES = 1L << 28;
+    private static final char ASHUNG = 'འ';
+    private static final System.Logger LOGGER = System.getLogger(TibetanCorpusSegmenter.class.getName());
+    private static final String USAGE = String.join("\n",
+        "Usage: TibetanCorpusSegmenter [options] <input|-> [<output>]",
+        "  --ndjson | --text         Input format; by default NDJSON for .json, .jsonl and .ndjson files",
+        "  --fields <a,b>            NDJSON fields to segment; by default every top-level string field",
+        "  --analyze                 Write _analyze-style token objects instead of token strings",
+        "  --threads <n>             Worker threads; by default one per core",
+        "  --keep-suffixes           Do not split grammatical suffixes from their words",
+        "  --max-syllables <n>       Longest candidate tried, in syllables; by default the longest entry",
+        "  --viterbi                 Most probable segmentation of each run instead of longest match",
+        "  --user-dictionary <file>  Additional entries, one per line",
+        "  --skip-malformed          Copy malformed NDJSON lines unchanged instead of failing");
+    
+    private final TibetanTokenizer tokenizer;
+    private final boolean ndjson;
+    private final boolean analyze;
+    private final Set<String> fields;
+    private final boolean skipMalformed;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+    
+    /**
+     * @param ndjson Whether lines are JSON objects rather than plain text
+     * @param analyze Whether tokens are written with offsets, type and position
+     * @param fields Top-level fields to segment, or null for every string field
+     */
+    public TibetanCorpusSegmenter(TibetanTokenizer tokenizer, boolean ndjson, boolean analyze, Collection<String> fields) {
+        this(tokenizer, ndjson, analyze, fields, false);
+    }
+    
+    /**
+     * @param skipMalformed Whether malformed NDJSON lines are copied unchanged rather than failing the run
+     */
+    public TibetanCorpusSegmenter(TibetanTokenizer tokenizer, boolean ndjson, boolean analyze, Collection<String> fields,
+                                  boolean skipMalformed) {
+        this.tokenizer = tokenizer;
+        this.ndjson = ndjson;
+        this.analyze = analyze;
+        this.fields = fields == null ? null : new HashSet<>(fields);
+        this.skipMalformed = skipMalformed;
+    }
+    
+    /**
+     * Segment one line, without its line terminator
+     * @return the output line
+     */
+    public String segmentLine(String line) {
+        Worker worker = workers.get();
+        char[] chars = line.toCharArray();
+        worker.out.setLength(0);
+        worker.segmentLine(chars, 0, chars.length);
+        return worker.out.toString();
+    }
+    
+    /**
+     * Segment a file, memory mapped in large regions
+     * @return the number of lines segmented
+     */
+    public long segment(Path input, OutputStream out, int threads) throws IOException {
+        try (FileChannel channel = FileChannel.open(input)) {
+            return segment(new BatchReader(channel, BATCH_BYTES), out, threads);
+        }
+    }
+    
+    /**
+     * Segment a stream, e.g. standard input, read in chunks
+     * @return the number of lines segmented
+     */
+    public long segment(ReadableByteChannel input, OutputStream out, int threads) throws IOException {
+        return segment(new BatchReader(input, BATCH_BYTES), out, threads);
+    }
+    
+    long segment(BatchReader reader, OutputStream out, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "tibetan-segmenter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Results are written in submission order; a few batches per thread keep every core busy
+        Deque<Future<Batch>> pending = new ArrayDeque<>();
+        long lines = 0;
+        try {
+            ByteBuffer bytes;
+            while ((bytes = reader.next()) != null) {
+                ByteBuffer batch = bytes;
+                pending.add(executor.submit(() -> workers.get().segment(batch)));
+                if (pending.size() >= threads * 4) {
+                    lines += write(pending.poll(), out, lines);
+                }
+            }
+            while (!pending.isEmpty()) {
+                lines += write(pending.poll(), out, lines);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        out.flush();
+        return lines;
+    }
+    
+    /**
+     * Write the output of a batch once it is done
+     * @param firstLine Number of lines before the batch, to report malformed lines by line number
+     */
+    private static int write(Future<Batch> future, OutputStream out, long firstLine) throws IOException {
+        Batch batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while segmenting");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MalformedLineException) {
+                MalformedLineException malformed = (MalformedLineException) cause;
+                throw new IllegalArgumentException("Line " + (firstLine + malformed.line + 1) + ": "
+                    + malformed.getMessage(), malformed);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        for (int line : batch.skipped) {
+            LOGGER.log(System.Logger.Level.WARNING, "Copied malformed line {0} unchanged", firstLine + line + 1);
+        }
+        out.write(batch.bytes);
+        return batch.lines;
+    }
+    
+    /**
+     * Output of one batch of lines
+     */
+    private static final class Batch {
+        final byte[] bytes;
+        final int lines;
+        final int[] skipped;
+        
+        Batch(byte[] bytes, int lines, int[] skipped) {
+            this.bytes = bytes;
+            this.lines = lines;
+            this.skipped = skipped;
+        }
+    }
+    
+    /**
+     * A line of a batch that is not a JSON object
+     */
+    private static final class MalformedLineException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+        
+        final int line;
+        
+        MalformedLineException(int line, IllegalArgumentException cause) {
+            super(cause.getMessage(), cause);
+            this.line = line;
+        }
+    }
+    
+    /**
+     * Cuts the input into batches of whole lines
+     * A mapped file is sliced without copying; a stream is read into
+     * buffers, carrying an incomplete last line over to the next batch.
+     */
+    static final class BatchReader {
+        private final int batchBytes;
+        private final FileChannel file;
+        private final ReadableByteChannel stream;
+        private ByteBuffer region;
+        private long regionStart;
+        private long position;
+        private byte[] carry = new byte[0];
+        private boolean endOfStream;
+        
+        BatchReader(FileChannel file, int batchBytes) {
+            this.file = file;
+            this.stream = null;
+            this.batchBytes = batchBytes;
+        }
+        
+        BatchReader(ReadableByteChannel stream, int batchBytes) {
+            this.file = null;
+            this.stream = stream;
+            this.batchBytes = batchBytes;
+        }
+        
+        /**
+         * @return the next batch, ending with a line feed unless it ends the input, or null at the end
+         */
+        ByteBuffer next() throws IOException {
+            return file != null ? nextMapped() : nextRead();
+        }
+        
+        private ByteBuffer nextMapped() throws IOException {
+            long size = file.size();
+            while (position < size) {
+                if (region == null || position >= regionStart + region.limit()) {
+                    regionStart = position;
+                    region = file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_BYTES, size - position));
+                }
+                int from = (int) (position - regionStart);
+                int limit = region.limit();
+                int to = Math.min(limit, from + batchBytes);
+                
+                int cut = lastLineEnd(region, from, to);
+                if (cut < 0) {
+                    cut = firstLineEnd(region, to, limit);
+                }
+                if (cut < 0) {
+                    if (regionStart + limit == size) {
+                        cut = limit;
+                    } else if (from == 0) {
+                        throw new IOException("Line longer than " + REGION_BYTES + " bytes at byte offset " + position);
+                    } else {
+                        // The line goes on past the region: map again from its start
+                        region = null;
+                        continue;
+                    }
+                }
+                position = regionStart + cut;
+                return region.slice(from, cut - from);
+            }
+            return null;
+        }
+        
+        private ByteBuffer nextRead() throws IOException {
+            if (endOfStream && carry.length == 0) {
+                return null;
+            }
+            byte[] buffer = Arrays.copyOf(carry, Math.max(batchBytes, carry.length * 2));
+            int filled = carry.length;
+            while (true) {
+                while (!endOfStream && filled < buffer.length) {
+                    int read = stream.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+                    if (read < 0) {
+                        endOfStream = true;
+                    } else {
+                        filled += read;
+                    }
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, filled);
+                int cut = endOfStream ? filled : lastLineEnd(data, 0, filled);
+                if (cut >= 0) {
+                    carry = Arrays.copyOfRange(buffer, cut, filled);
+                    return filled == 0 ? null : ByteBuffer.wrap(buffer, 0, cut);
+                }
+                // No complete line yet
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        
+        private static int lastLineEnd(ByteBuffer bytes, int from, int to) {
+            for (int i = to - 1; i >= from; i--) {
+                if (bytes.get(i) == '\n') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+        
+        private static int firstLineEnd(ByteBuffer bytes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bytes.get(i) == '\n') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    /**
+     * Per-thread state: decoder, normalizer, token sink and output buffer
+     */
+    private final class Worker extends TibetanTokenSink {
+        final StringBuilder out = new StringBuilder();
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final TibetanNormalizer normalizer = new TibetanNormalizer();
+        private final StringBuilder value = new StringBuilder();
+        private final List<String> keys = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
+        private final List<String> members = new ArrayList<>();
+        private int[] spans = new int[32];
+        private CharBuffer chars = CharBuffer.allocate(0);
+        private char[] text = new char[256];
+        private int position;
+        private int lineStart;
+        
+        Batch segment(ByteBuffer batch) {
+            // A UTF-8 byte never decodes to more than one char
+            if (chars.capacity() < batch.remaining()) {
+                chars = CharBuffer.allocate(batch.remaining());
+            }
+            chars.clear();
+            decoder.reset();
+            decoder.decode(batch, chars, true);
+            decoder.flush(chars);
+            char[] array = chars.array();
+            int length = chars.position();
+            
+            out.setLength(0);
+            int lines = 0;
+            int skipped = 0;
+            int[] skippedLines = new int[0];
+            for (int start = 0; start < length; lines++) {
+                int end = start;
+                while (end < length && array[end] != '\n') {
+                    end++;
+                }
+                int next = end + 1;
+                if (end > start && array[end - 1] == '\r') {
+                    end--;
+                }
+                int mark = out.length();
+                try {
+                    segmentLine(array, start, end);
+                } catch (IllegalArgumentException e) {
+                    if (!skipMalformed) {
+                        throw new MalformedLineException(lines, e);
+                    }
+                    out.setLength(mark);
+                    out.append(array, start, end - start);
+                    if (skipped == skippedLines.length) {
+                        skippedLines = Arrays.copyOf(skippedLines, Math.max(4, skipped * 2));
+                    }
+                    skippedLines[skipped++] = lines;
+                }
+                out.append('\n');
+                start = next;
+            }
+            byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+            if (out.capacity() > BATCH_BYTES * 4) {
+                out.setLength(0);
+                out.trimToSize();
+            }
+            return new Batch(bytes, lines, Arrays.copyOf(skippedLines, skipped));
+        }
+        
+        void segmentLine(char[] line, int start, int end) {
+            lineStart = start;
+            if (!ndjson) {
+                out.append("{\"tokens\":");
+                tokens(line, start, end - start);
+                out.append('}');
+                return;
+            }
+            
+            if (skipWhitespace(line, start, end) == end) {
+                out.append(line, start, end - start);
+                return;
+            }
+            keys.clear();
+            values.clear();
+            members.clear();
+            int close = scanObject(line, start, end);
+            int trailing = skipWhitespace(line, close + 1, end);
+            if (trailing != end) {
+                throw malformed(line, trailing, end);
+            }
+            if (keys.isEmpty()) {
+                out.append(line, start, end - start);
+                return;
+            }
+            boolean replace = false;
+            for (String key : keys) {
+                replace |= members.contains(key + "_tokens");
+            }
+            boolean empty = true;
+            if (replace) {
+                // Rebuild the object without the members about to be written
+                out.append(line, start, spans[0] - start);
+                for (int m = 0; m < members.size(); m++) {
+                    String member = members.get(m);
+                    if (member.endsWith("_tokens") && keys.contains(member.substring(0, member.length() - 7))) {
+                        continue;
+                    }
+                    if (!empty) {
+                        out.append(',');
+                    }
+                    out.append(line, spans[2 * m], spans[2 * m + 1] - spans[2 * m]);
+                    empty = false;
+                }
+            } else {
+                int last = close;
+                while (last > start && line[last - 1] <= ' ') {
+                    last--;
+                }
+                out.append(line, start, last - start);
+                empty = false;
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                if (!empty) {
+                    out.append(',');
+                }
+                empty = false;
+                quote(keys.get(i) + "_tokens");
+                out.append(':');
+                String fieldValue = values.get(i);
+                tokens(fieldValue.toCharArray(), 0, fieldValue.length());
+            }
+            out.append('}');
+        }
+        
+        /**
+         * Append the JSON array of the tokens of a text
+         */
+        private void tokens(char[] source, int offset, int length) {
+            if (text.length < length) {
+                text = new char[Math.max(length, text.length * 2)];
+            }
+            System.arraycopy(source, offset, text, 0, length);
+            normalizer.reset();
+            int written = normalizer.normalize(text, 0, length, text, 0);
+            written += normalizer.finish(text, written);
+            
+            out.append('[');
+            position = 0;
+            tokenizer.tokenize(text, 0, written, this);
+            out.append(']');
+        }
+        
+        @Override
+        public void token(char[] text, int start, int end, boolean ashung, int type) {
+            if (position > 0) {
+                out.append(',');
+            }
+            if (analyze) {
+                out.append("{\"token\":");
+            }
+            out.append('"');
+            escape(text, start, end);
+            if (ashung) {
+                out.append(ASHUNG);
+            }
+            out.append('"');
+            if (analyze) {
+                out.append(",\"start_offset\":").append(normalizer.correctOffset(start))
+                    .append(",\"end_offset\":").append(normalizer.correctOffset(end))
+                    .append(",\"type\":");
+                quote(TibetanTokenizer.TOKEN_TYPES[type]);
+                out.append(",\"position\":").append(position).append('}');
+            }
+            position++;
+        }
+        
+        /**
+         * Collect the selected top-level string fields of a JSON object, and
+         * the name and span of every member
+         * @return the position of the closing brace
+         */
+        private int scanObject(char[] line, int start, int end) {
+            int i = skipWhitespace(line, start, end);
+            expect(line, i, end, '{');
+            i = skipWhitespace(line, i + 1, end);
+            if (i < end && line[i] == '}') {
+                return i;
+            }
+            while (true) {
+                expect(line, i, end, '"');
+                int memberStart = i;
+                i = readString(line, i, end);
+                String key = value.toString();
+                i = skipWhitespace(line, i, end);
+                expect(line, i, end, ':');
+                i = skipWhitespace(line, i + 1, end);
+                if (i < end && line[i] == '"') {
+                    i = readString(line, i, end);
+                    if (fields == null || fields.contains(key)) {
+                        keys.add(key);
+                        values.add(value.toString());
+                    }
+                } else {
+                    i = skipValue(line, i, end);
+                }
+                if (spans.length < 2 * members.size() + 2) {
+                    spans = Arrays.copyOf(spans, spans.length * 2);
+                }
+                spans[2 * members.size()] = memberStart;
+                spans[2 * members.size() + 1] = i;
+                members.add(key);
+                i = skipWhitespace(line, i, end);
+                if (i < end && line[i] == '}') {
+                    return i;
+                }
+                expect(line, i, end, ',');
+                i = skipWhitespace(line, i + 1, end);
+            }
+        }
+        
+        /**
+         * Decode the JSON string starting at a quote into value
+         * @return the position after the closing quote
+         */
+        private int readString(char[] line, int i, int end) {
+            value.setLength(0);
+            for (i++; i < end; i++) {
+                char c = line[i];
+                if (c == '"') {
+                    return i + 1;
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (++i >= end) {
+                    break;
+                }
+                switch (line[i]) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (i + 4 >= end) {
+                            throw malformed(line, i, end);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(new String(line, i + 1, 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw malformed(line, i, end);
+                        }
+                        i += 4;
+                        break;
+                    default: value.append(line[i]);
+                }
+            }
+            throw malformed(line, i, end);
+        }
+        
+        /**
+         * Skip a number, literal, object or array
+         * @return the position after it
+         */
+        private int skipValue(char[] line, int i, int end) {
+            int depth = 0;
+            for (; i < end; i++) {
+                char c = line[i];
+                if (c == '"') {
+                    i = readString(line, i, end) - 1;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (depth == 0) {
+                        return i;
+                    }
+                    if (--depth == 0) {
+                        return i + 1;
+                    }
+                } else if (depth == 0 && (c == ',' || c <= ' ')) {
+                    return i;
+                }
+            }
+            if (depth > 0) {
+                throw malformed(line, i, end);
+            }
+            return i;
+        }
+        
+        private void expect(char[] line, int i, int end, char c) {
+            if (i >= end || line[i] != c) {
+                throw malformed(line, i, end);
+            }
+        }
+        
+        private IllegalArgumentException malformed(char[] line, int i, int end) {
+            return new IllegalArgumentException("Malformed JSON at column " + (i - lineStart + 1) + ": "
+                + new String(line, lineStart, Math.min(end - lineStart, 200)));
+        }
+        
+        private void quote(String s) {
+            out.append('"');
+            escape(s.toCharArray(), 0, s.length());
+            out.append('"');
+        }
+        
+        private void escape(char[] s, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = s[i];
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:
+                        if (c < ' ') {
+                            out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+        }
+    }
+    
+    private static int skipWhitespace(char[] line, int i, int end) {
+        while (i < end && line[i] <= ' ') {
+            i++;
+        }
+        return i;
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Boolean ndjson = null;
+        boolean analyze = false;
+        boolean splitSuffixes = true;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxSyllables = 0;
+        TibetanTokenizer.Mode mode = TibetanTokenizer.Mode.GREEDY;
+        List<String> fields = null;
+        Path userDictionary = null;
+        boolean skipMalformed = false;
+        List<String> paths = new ArrayList<>();
+        
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--ndjson": ndjson = true; break;
+                case "--text": ndjson = false; break;
+                case "--analyze": analyze = true; break;
+                case "--keep-suffixes": splitSuffixes = false; break;
+                case "--fields": fields = Arrays.asList(value(args, ++i).split(",")); break;
+                case "--threads": threads = Integer.parseInt(value(args, ++i)); break;
+                case "--max-syllables": maxSyllables = Integer.parseInt(value(args, ++i)); break;
+                case "--viterbi": mode = TibetanTokenizer.Mode.VITERBI; break;
+                case "--user-dictionary": userDictionary = Paths.get(value(args, ++i)); break;
+                case "--skip-malformed": skipMalformed = true; break;
+                default:
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option " + arg + "\n" + USAGE);
+                    }
+                    paths.add(arg);
+            }
+        }
+        if (paths.isEmpty() || paths.size() > 2 || threads < 1) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        String input = paths.get(0);
+        Path output = paths.size() > 1 ? Paths.get(paths.get(1)) : null;
+        if (ndjson == null) {
+            String name = input.toLowerCase(Locale.ROOT);
+            ndjson = name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson");
+        }
+        
+        TibetanDictionaryManager dictionary;
+        if (userDictionary != null) {
+            List<String> entries = new ArrayList<>();
+            TibetanDictionaryLoader.forEachEntry(userDictionary, entries::add);
+            dictionary = new TibetanDictionaryManager(entries);
+        } else {
+            dictionary = new TibetanDictionaryManager();
+        }
+        dictionary.initialize();
+        
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(
+            new TibetanTokenizer(dictionary, splitSuffixes, null, maxSyllables, mode), ndjson, analyze, fields,
+            skipMalformed);
+        long started = System.nanoTime();
+        long lines;
+        try (OutputStream out = new BufferedOutputStream(
+                 output != null ? Files.newOutputStream(output) : new FileOutputStream(FileDescriptor.out), 1 << 16)) {
+            if (input.equals("-")) {
+                lines = segmenter.segment(Channels.newChannel(System.in), out, threads);
+            } else {
+                lines = segmenter.segment(Paths.get(input), out, threads);
+            }
+        }
+        System.err.println("Segmented " + lines + " lines in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+    }
+    
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1] + "\n" + USAGE);
+        }
+        return args[i];
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Precompiled binary image of the bundled dictionaries
+ * The build compiles the text word lists, which stay the source of truth,
+ * into one image holding the trie, suffix lists and load statistics. At
+ * startup the image is read with one bulk read instead of parsing and
+ * compiling every word list.
+ *
+ * Layout: magic, format version, syllables, trie arrays, statistics, suffixes,
+ * second suffixes, then a CRC32 of everything before it
+ */
+public final class TibetanDictionaryImage {
+    
+    /**
+     * Classpath location of the image built by the compileDictionary task
+     */
+    public static final String RESOURCE = "/dictionaries/tibetan-dictionary.bin";
+    
+    static final int MAGIC = 0x54424454;    // "TBDT"
+    static final int VERSION = 3;
+    
+    final TibetanDictionaryTrie trie;
+    final Map<String, Integer> counts;
+    final List<String> suffixes;
+    final List<String> secondSuffixes;
+    
+    TibetanDictionaryImage(TibetanDictionaryTrie trie, Map<String, Integer> counts,
+                           List<String> suffixes, List<String> secondSuffixes) {
+        this.trie = trie;
+        this.counts = counts;
+        this.suffixes = suffixes;
+        this.secondSuffixes = secondSuffixes;
+    }
+    
+    /**
+     * Serialize the image with its checksum
+     */
+    public void writeTo(OutputStream target) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        trie.writeTo(out);
+        out.writeInt(counts.size());
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            writeString(out, count.getKey());
+            out.writeInt(count.getValue());
+        }
+        writeStrings(out, suffixes);
+        writeStrings(out, secondSuffixes);
+        out.flush();
+        
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        bytes.writeTo(target);
+    }
+    
+    /**
+     * Read an image, verifying its version and checksum
+     * @throws IOException if the image is corrupt or of another format version
+     */
+    public static TibetanDictionaryImage read(byte[] image) throws IOException {
+        if (image.length < 3 * Integer.BYTES + Long.BYTES) {
+            throw new IOException("Dictionary image is truncated");
+        }
+        ByteBuffer in = ByteBuffer.wrap(image);
+        CRC32 crc = new CRC32();
+        crc.update(image, 0, image.length - Long.BYTES);
+        if (crc.getValue() != in.getLong(image.length - Long.BYTES)) {
+            throw new IOException("Dictionary image checksum mismatch");
+        }
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a dictionary image");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported dictionary image version " + version + ", expected " + VERSION);
+        }
+        
+        try {
+            TibetanDictionaryTrie trie = TibetanDictionaryTrie.readFrom(in);
+            int countSize = in.getInt();
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (int i = 0; i < countSize; i++) {
+                counts.put(readString(in), in.getInt());
+            }
+            List<String> suffixes = readStrings(in);
+            List<String> secondSuffixes = readStrings(in);
+            return new TibetanDictionaryImage(trie, counts, suffixes, secondSuffixes);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed dictionary image", e);
+        }
+    }
+    
+    /**
+     * Read the image bundled with the plugin
+     * @return the image, or null when running without the compiled image (e.g. from an IDE)
+     */
+    public static TibetanDictionaryImage readBundled() throws IOException {
+        try (InputStream is = TibetanDictionaryImage.class.getResourceAsStream(RESOURCE)) {
+            return is == null ? null : read(is.readAllBytes());
+        }
+    }
+    
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+    
+    private static List<String> readStrings(ByteBuffer in) {
+        int size = in.getInt();
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+    
+    private static String readString(ByteBuffer in) {
+        byte[] utf8 = new byte[in.getInt()];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Compile the bundled text dictionaries on the classpath into an image file
+     * Run by the compileDictionary Gradle task
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: TibetanDictionaryImage <output file>");
+        }
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initializeFromText();
+        
+        Path output = Paths.get(args[0]);
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+            dictionary.toImage().writeTo(out);
+        }
+        System.out.println("Wrote dictionary image " + output + " (" + Files.size(output) + " bytes)");
+    }
+}
@@ -13,18 +13,21 @@
  * under the License.
  */
 
-package org.tocharian;
+package org.tocharian.tibetan;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Tibetan dictionary loader
- * Loads dictionary files from resources
+ * Loads dictionary files from resources, or user dictionaries from disk
  */
 public class TibetanDictionaryLoader {
     
@@ -35,10 +38,36 @@ public class TibetanDictionaryLoader {
      */
     public static Set<String> loadDictionary(String filename) throws IOException {
         Set<String> dictionary = new HashSet<>();
+        forEachEntry(filename, dictionary::add);
+        return dictionary;
+    }
+    
+    /**
+     * Stream the entries of a dictionary file without collecting them
+     * @param filename The dictionary filename (without path)
+     * @param consumer Receives each entry in file order
+     */
+    public static void forEachEntry(String filename, Consumer<String> consumer) throws IOException {
         String path = "/dictionaries/" + filename;
         
-        try (InputStream is = getResourceAsStream(path);
-             BufferedReader reader = new BufferedReader(
+        try (InputStream is = getResourceAsStream(path)) {
+            forEachEntry(is, consumer);
+        }
+    }
+    
+    /**
+     * Stream the entries of a dictionary file on disk, e.g. a user dictionary
+     * @param file Path of a UTF-8 file with one entry per line
+     * @param consumer Receives each entry in file order
+     */
+    public static void forEachEntry(Path file, Consumer<String> consumer) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            forEachEntry(is, consumer);
+        }
+    }
+    
+    private static void forEachEntry(InputStream is, Consumer<String> consumer) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
                  new InputStreamReader(is, StandardCharsets.UTF_8))) {
             
             String line;
@@ -46,12 +75,10 @@ public class TibetanDictionaryLoader {
                 line = line.trim();
                 // Skip empty lines and comments
                 if (!line.isEmpty() && !line.startsWith("#")) {
-                    dictionary.add(line);
+                    consumer.accept(line);
                 }
             }
         }
-        
-        return dictionary;
     }
     
     /**
@@ -59,22 +86,7 @@ public class TibetanDictionaryLoader {
      */
     public static List<String> loadDictionaryAsList(String filename) throws IOException {
         List<String> dictionary = new ArrayList<>();
-        String path = "/dictionaries/" + filename;
-        
-        try (InputStream is = getResourceAsStream(path);
-             BufferedReader reader = new BufferedReader(
-                 new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                // Skip empty lines and comments
-                if (!line.isEmpty() && !line.startsWith("#")) {
-                    dictionary.add(line);
-                }
-            }
-        }
-        
+        forEachEntry(filename, dictionary::add);
         return dictionary;
     }
     
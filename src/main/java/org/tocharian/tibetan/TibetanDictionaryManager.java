@@ -15,7 +15,8 @@
 
 package org.tocharian.tibetan;
 
-import org.tocharian.TibetanDictionaryLoader;
+import org.tocharian.tibetan.utils.TibetanCharacterUtils;
+import org.tocharian.tibetan.utils.TibetanNormalizer;
 
 import java.io.IOException;
 import java.util.*;
@@ -23,130 +24,362 @@ import java.util.*;
 /**
  * Tibetan dictionary manager
  * Manages all dictionary data and provides lookup functions
+ * All word lists are compiled into one TibetanDictionaryTrie whose entries
+ * carry a bitmask of categories, so a single walk answers every category.
+ * Read-only once initialized, so one instance can be shared across indices
  */
 public class TibetanDictionaryManager {
     
-    private Set<String> particles;
-    private Set<String> verbs;
-    private Map<Integer, Set<String>> wordsBySyllable;  // Indexed by syllable count
-    private Set<String> verbsAshung;
-    private Set<String> wordsAshung;
-    private Set<String> customWords;
+    private static final System.Logger LOGGER = System.getLogger(TibetanDictionaryManager.class.getName());
+    
+    // Category flags stored on trie entries
+    public static final int PARTICLE = 1;
+    public static final int VERB = 1 << 1;
+    public static final int WORD = 1 << 2;
+    public static final int VERB_ASHUNG = 1 << 3;
+    public static final int WORD_ASHUNG = 1 << 4;
+    public static final int CUSTOM = 1 << 5;
+    
+    private TibetanDictionaryTrie trie;
     private List<String> suffixes;
     private Set<String> secondSuffixes;
+    private int maxSuffixLength;
+    private TibetanSuffixTable suffixTable;
+    private long loadMillis;
+    private final TibetanSegmentationStats segmentationStats = new TibetanSegmentationStats();
+    private int maxSyllables;
+    
+    // Entries from the index's user dictionary, added as custom words
+    private final List<String> userEntries;
+    
+    // Distinct entries loaded per source file, for statistics
+    private final Map<String, Integer> loadedCounts = new LinkedHashMap<>();
     
-    private boolean initialized = false;
+    private volatile boolean initialized = false;
     
     public TibetanDictionaryManager() {
-        wordsBySyllable = new HashMap<>();
-        for (int i = 1; i <= 4; i++) {
-            wordsBySyllable.put(i, new HashSet<>());
-        }
+        this(Collections.emptyList());
+    }
+    
+    /**
+     * Create a manager whose custom words also include user dictionary entries
+     * A user dictionary changes the compiled trie, so each distinct set of
+     * entries needs its own manager; the bundled files are never modified.
+     * An entry may be followed by whitespace and its corpus count, which
+     * weighs it in unigram segmentation.
+     */
+    public TibetanDictionaryManager(Collection<String> userEntries) {
+        this.userEntries = new ArrayList<>(userEntries);
     }
     
     /**
      * Initialize and load all dictionaries
+     * Uses the precompiled dictionary image when it is bundled, and compiles
+     * the text word lists otherwise
      */
-    public void initialize() throws IOException {
+    public synchronized void initialize() throws IOException {
         if (initialized) {
             return;
         }
         
-        System.out.println("Loading Tibetan dictionaries...");
+        long started = System.nanoTime();
+        TibetanDictionaryImage image = TibetanDictionaryImage.readBundled();
+        if (image == null) {
+            LOGGER.log(System.Logger.Level.DEBUG, "No dictionary image found, compiling text dictionaries");
+            initializeFromText();
+            return;
+        }
+        
+        loadedCounts.putAll(image.counts);
+        trie = image.trie;
+        if (!userEntries.isEmpty()) {
+            TibetanDictionaryTrie.Builder builder = new TibetanDictionaryTrie.Builder();
+            builder.addAll(trie);
+            loadUserEntries(builder);
+            trie = builder.build();
+        }
+        finishInitialization(image.suffixes, image.secondSuffixes, started);
+    }
+    
+    /**
+     * Initialize by parsing and compiling the text word lists
+     * Also used to build the dictionary image
+     */
+    synchronized void initializeFromText() throws IOException {
+        if (initialized) {
+            return;
+        }
+        
+        long started = System.nanoTime();
+        TibetanDictionaryTrie.Builder builder = new TibetanDictionaryTrie.Builder();
         
         // Load particles
-        particles = TibetanDictionaryLoader.loadDictionary("particles.txt");
-        System.out.println("Loaded particles: " + particles.size());
+        load(builder, "particles", "particles.txt", PARTICLE);
         
         // Load verbs
-        verbs = TibetanDictionaryLoader.loadDictionary("verbs.txt");
-        System.out.println("Loaded verbs: " + verbs.size());
+        load(builder, "verbs", "verbs.txt", VERB);
         
         // Load verbs ashung
-        verbsAshung = TibetanDictionaryLoader.loadDictionary("verbs_ashung.txt");
-        System.out.println("Loaded verbs ashung: " + verbsAshung.size());
+        load(builder, "verbs_ashung", "verbs_ashung.txt", VERB_ASHUNG);
         
         // Load words by syllable count
-        wordsBySyllable.put(1, TibetanDictionaryLoader.loadDictionary("words_1_syllable.txt"));
-        System.out.println("Loaded 1-syllable words: " + wordsBySyllable.get(1).size());
-        
-        wordsBySyllable.put(2, TibetanDictionaryLoader.loadDictionary("words_2_syllable.txt"));
-        System.out.println("Loaded 2-syllable words: " + wordsBySyllable.get(2).size());
-        
-        wordsBySyllable.put(3, TibetanDictionaryLoader.loadDictionary("words_3_syllable.txt"));
-        System.out.println("Loaded 3-syllable words: " + wordsBySyllable.get(3).size());
-        
-        wordsBySyllable.put(4, TibetanDictionaryLoader.loadDictionary("words_4_syllable.txt"));
-        System.out.println("Loaded 4-syllable words: " + wordsBySyllable.get(4).size());
+        for (int i = 1; i <= 4; i++) {
+            load(builder, "words_" + i + "_syllable", "words_" + i + "_syllable.txt", WORD);
+        }
         
         // Load words ashung
-        wordsAshung = TibetanDictionaryLoader.loadDictionary("words_ashung.txt");
-        System.out.println("Loaded words ashung: " + wordsAshung.size());
+        load(builder, "words_ashung", "words_ashung.txt", WORD_ASHUNG);
         
         // Load custom dictionary (may be empty)
         try {
-            customWords = TibetanDictionaryLoader.loadDictionary("custom_dictionary.txt");
-            System.out.println("Loaded custom words: " + customWords.size());
+            load(builder, "custom_words", "custom_dictionary.txt", CUSTOM);
+        } catch (IOException e) {
+            loadedCounts.put("custom_words", 0);
+            LOGGER.log(System.Logger.Level.DEBUG, "No custom dictionary found, using empty set");
+        }
+        
+        // Load corpus counts of the entries above (may be empty)
+        try {
+            loadCounts(builder, "frequencies.txt");
         } catch (IOException e) {
-            customWords = new HashSet<>();
-            System.out.println("No custom dictionary found, using empty set");
+            LOGGER.log(System.Logger.Level.DEBUG, "No frequency list found, weighing entries equally");
         }
         
-        // Load suffixes (order matters)
-        suffixes = TibetanDictionaryLoader.loadDictionaryAsList("suffixes.txt");
-        System.out.println("Loaded suffixes: " + suffixes.size());
+        loadUserEntries(builder);
         
-        // Load second suffixes
-        secondSuffixes = TibetanDictionaryLoader.loadDictionary("second_suffixes.txt");
-        System.out.println("Loaded second suffixes: " + secondSuffixes.size());
+        trie = builder.build();
+        
+        // Load suffixes (order matters) and second suffixes
+        List<String> suffixList = TibetanDictionaryLoader.loadDictionaryAsList("suffixes.txt");
+        loadedCounts.put("suffixes", suffixList.size());
+        List<String> secondSuffixList = TibetanDictionaryLoader.loadDictionaryAsList("second_suffixes.txt");
+        loadedCounts.put("second_suffixes", secondSuffixList.size());
+        
+        finishInitialization(suffixList, secondSuffixList, started);
+    }
+    
+    private void finishInitialization(List<String> suffixList, List<String> secondSuffixList, long started) {
+        suffixes = Collections.unmodifiableList(new ArrayList<>(suffixList));
+        for (String suffix : suffixes) {
+            maxSuffixLength = Math.max(maxSuffixLength, suffix.length());
+        }
+        secondSuffixes = Collections.unmodifiableSet(new HashSet<>(secondSuffixList));
+        suffixTable = new TibetanSuffixTable(suffixes, secondSuffixes);
+        maxSyllables = trie.maxSyllables();
         
         initialized = true;
-        System.out.println("Tibetan dictionary manager initialized successfully");
+        loadMillis = (System.nanoTime() - started) / 1_000_000;
+        LOGGER.log(System.Logger.Level.INFO, "Loaded Tibetan dictionary: {0} entries, {1} trie nodes, {2} bytes in {3} ms",
+            trie.size(), trie.nodeCount(), trie.ramBytesUsed(), loadMillis);
+    }
+    
+    /**
+     * Add the user dictionary entries to the trie builder as custom words
+     */
+    private void loadUserEntries(TibetanDictionaryTrie.Builder builder) {
+        if (userEntries.isEmpty()) {
+            return;
+        }
+        int count = 0;
+        for (String line : userEntries) {
+            int separator = countSeparator(line);
+            String entry = normalizeUserEntry(separator < 0 ? line : line.substring(0, separator).trim());
+            if (addEntry(builder, entry, CUSTOM)) {
+                count++;
+            }
+            if (separator >= 0) {
+                setCount(builder, entry, parseCount(line, separator));
+            }
+        }
+        loadedCounts.put("user_words", count);
+        LOGGER.log(System.Logger.Level.DEBUG, "Loaded user_words: {0}", count);
+    }
+    
+    /**
+     * Capture the bundled dictionaries as an image
+     * Only meaningful for a manager without user entries
+     */
+    TibetanDictionaryImage toImage() {
+        List<String> secondSuffixList = new ArrayList<>(secondSuffixes);
+        Collections.sort(secondSuffixList);
+        return new TibetanDictionaryImage(trie, new LinkedHashMap<>(loadedCounts), suffixes, secondSuffixList);
+    }
+    
+    /**
+     * Add every entry of a dictionary file to the trie builder under one category
+     */
+    private void load(TibetanDictionaryTrie.Builder builder, String name, String filename, int category)
+            throws IOException {
+        int[] count = new int[1];
+        TibetanDictionaryLoader.forEachEntry(filename, entry -> {
+            if (addEntry(builder, entry, category)) {
+                count[0]++;
+            }
+        });
+        // Several files may feed one category (e.g. words by syllable count)
+        loadedCounts.merge(name, count[0], Integer::sum);
+        LOGGER.log(System.Logger.Level.DEBUG, "Loaded {0}: {1}", name, count[0]);
+    }
+    
+    /**
+     * Set the corpus counts listed in a frequency file, one entry and its
+     * count per line; counts of entries that are not loaded are ignored
+     */
+    private void loadCounts(TibetanDictionaryTrie.Builder builder, String filename) throws IOException {
+        int[] count = new int[1];
+        TibetanDictionaryLoader.forEachEntry(filename, line -> {
+            int separator = countSeparator(line);
+            if (separator < 0) {
+                LOGGER.log(System.Logger.Level.WARNING, "Ignoring {0} line without a count: {1}", filename, line);
+                return;
+            }
+            String entry = line.substring(0, separator).trim();
+            setCount(builder, entry, parseCount(line, separator));
+            count[0]++;
+        });
+        LOGGER.log(System.Logger.Level.DEBUG, "Loaded counts: {0}", count[0]);
+    }
+    
+    /**
+     * Find the whitespace before a trailing count, as in "བཀྲ་ཤིས 1520"
+     * @return the index of the whitespace, or -1 if the line has no count
+     */
+    static int countSeparator(String line) {
+        int end = line.length();
+        int digits = end;
+        while (digits > 0 && line.charAt(digits - 1) >= '0' && line.charAt(digits - 1) <= '9') {
+            digits--;
+        }
+        if (digits == end || digits < 2 || !Character.isWhitespace(line.charAt(digits - 1))) {
+            return -1;
+        }
+        return digits - 1;
+    }
+    
+    /**
+     * Parse the count after the separator, saturating at Integer.MAX_VALUE
+     */
+    private static int parseCount(String line, int separator) {
+        long count = 0;
+        for (int i = separator + 1; i < line.length(); i++) {
+            count = Math.min(count * 10 + (line.charAt(i) - '0'), Integer.MAX_VALUE);
+        }
+        return (int) count;
+    }
+    
+    /**
+     * Set the count of an entry in both spellings added by addEntry
+     */
+    private static void setCount(TibetanDictionaryTrie.Builder builder, String entry, int count) {
+        if (entry.endsWith("༌")) {
+            entry = entry.substring(0, entry.length() - 1);
+        }
+        String normalized = TibetanNormalizer.normalize(entry);
+        builder.setCount(normalized, count);
+        builder.setCount(TibetanNormalizer.decompose(normalized), count);
+    }
+    
+    /**
+     * Add an entry in the normalized spelling the segmenter sees after
+     * TibetanNormalizer, and in the decomposed spelling for text that reaches
+     * the segmenter without that normalization
+     * @return true if the normalized entry did not carry the category yet
+     */
+    private static boolean addEntry(TibetanDictionaryTrie.Builder builder, String entry, int category) {
+        // A closing tsheg shad only ends the last syllable; it never matched before normalization
+        if (entry.endsWith("༌")) {
+            entry = entry.substring(0, entry.length() - 1);
+        }
+        String normalized = TibetanNormalizer.normalize(entry);
+        boolean added = builder.add(normalized, category);
+        String decomposed = TibetanNormalizer.decompose(normalized);
+        if (!decomposed.equals(normalized)) {
+            builder.add(decomposed, category);
+        }
+        return added;
+    }
+    
+    /**
+     * Bring a user entry into the form the segmenter looks up, without the
+     * tsheg closing the last syllable
+     */
+    private static String normalizeUserEntry(String entry) {
+        String normalized = TibetanNormalizer.normalize(entry);
+        while (normalized.endsWith("་")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+    
+    /**
+     * Get the compiled dictionary trie
+     */
+    public TibetanDictionaryTrie getTrie() {
+        return trie;
+    }
+    
+    /**
+     * Get the category flags of a word (0 if not in any dictionary)
+     */
+    public int lookup(String word) {
+        return trie != null ? trie.lookup(word) : 0;
     }
     
     /**
      * Check if a word exists in particles
      */
     public boolean isParticle(String word) {
-        return particles != null && particles.contains(word);
+        return (lookup(word) & PARTICLE) != 0;
     }
     
     /**
      * Check if a word exists in verbs
      */
     public boolean isVerb(String word) {
-        return verbs != null && verbs.contains(word);
+        return (lookup(word) & VERB) != 0;
     }
     
     /**
      * Check if a word exists in the dictionary with specified syllable count
      */
     public boolean containsWord(String word, int syllableCount) {
-        if (wordsBySyllable == null || !wordsBySyllable.containsKey(syllableCount)) {
-            return false;
-        }
-        return wordsBySyllable.get(syllableCount).contains(word);
+        return (lookup(word) & WORD) != 0 && TibetanCharacterUtils.countSyllables(word) == syllableCount;
     }
     
     /**
      * Check if a word is in custom dictionary
      */
     public boolean isCustomWord(String word) {
-        return customWords != null && customWords.contains(word);
+        return (lookup(word) & CUSTOM) != 0;
     }
     
     /**
      * Check if a word is an ashung verb
      */
     public boolean isVerbAshung(String word) {
-        return verbsAshung != null && verbsAshung.contains(word);
+        return (lookup(word) & VERB_ASHUNG) != 0;
     }
     
     /**
      * Check if a word is an ashung word
      */
     public boolean isWordAshung(String word) {
-        return wordsAshung != null && wordsAshung.contains(word);
+        return (lookup(word) & WORD_ASHUNG) != 0;
+    }
+    
+    /**
+     * Get all particles, in sorted order
+     */
+    public Set<String> getParticles() {
+        Set<String> particles = new TreeSet<>();
+        if (trie != null) {
+            trie.forEachEntry((word, flags) -> {
+                if ((flags & PARTICLE) != 0) {
+                    particles.add(word);
+                }
+            });
+        }
+        return particles;
     }
     
     /**
@@ -156,6 +389,34 @@ public class TibetanDictionaryManager {
         return suffixes;
     }
     
+    /**
+     * Get the suffix automaton used by the tokenizer
+     */
+    TibetanSuffixTable getSuffixTable() {
+        return suffixTable;
+    }
+    
+    /**
+     * Get the length of the longest suffix, in chars
+     */
+    public int getMaxSuffixLength() {
+        return maxSuffixLength;
+    }
+    
+    /**
+     * Get the number of syllables of the longest entry, user entries included
+     */
+    public int getMaxSyllables() {
+        return maxSyllables;
+    }
+    
+    /**
+     * Get all second suffixes
+     */
+    public Set<String> getSecondSuffixes() {
+        return secondSuffixes;
+    }
+    
     /**
      * Check if a suffix is a second suffix
      */
@@ -174,19 +435,27 @@ public class TibetanDictionaryManager {
      * Get statistics
      */
     public Map<String, Integer> getStatistics() {
-        Map<String, Integer> stats = new HashMap<>();
-        stats.put("particles", particles != null ? particles.size() : 0);
-        stats.put("verbs", verbs != null ? verbs.size() : 0);
-        stats.put("verbs_ashung", verbsAshung != null ? verbsAshung.size() : 0);
-        stats.put("words_1_syllable", wordsBySyllable.get(1) != null ? wordsBySyllable.get(1).size() : 0);
-        stats.put("words_2_syllable", wordsBySyllable.get(2) != null ? wordsBySyllable.get(2).size() : 0);
-        stats.put("words_3_syllable", wordsBySyllable.get(3) != null ? wordsBySyllable.get(3).size() : 0);
-        stats.put("words_4_syllable", wordsBySyllable.get(4) != null ? wordsBySyllable.get(4).size() : 0);
-        stats.put("words_ashung", wordsAshung != null ? wordsAshung.size() : 0);
-        stats.put("custom_words", customWords != null ? customWords.size() : 0);
-        stats.put("suffixes", suffixes != null ? suffixes.size() : 0);
-        stats.put("second_suffixes", secondSuffixes != null ? secondSuffixes.size() : 0);
+        Map<String, Integer> stats = new HashMap<>(loadedCounts);
+        stats.put("trie_entries", trie != null ? trie.size() : 0);
+        stats.put("trie_nodes", trie != null ? trie.nodeCount() : 0);
+        stats.put("trie_syllables", trie != null ? trie.getLexicon().size() : 0);
+        stats.put("trie_counted_entries", trie != null ? trie.countedEntries() : 0);
+        stats.put("trie_bytes", trie != null ? (int) trie.ramBytesUsed() : 0);
+        stats.put("max_syllables", maxSyllables);
         return stats;
     }
+    
+    /**
+     * Get the time initialization took, in milliseconds
+     */
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+    
+    /**
+     * Get the counters of the segmentation done with this dictionary
+     */
+    public TibetanSegmentationStats getSegmentationStats() {
+        return segmentationStats;
+    }
 }
-
@@ -0,0 +1,309 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Node-level registry of loaded dictionaries
+ * Indices with the same dictionary configuration share one initialized
+ * TibetanDictionaryManager, which is dropped once the last holder releases it.
+ * Holders with a close hook, such as analyzers, release their handle when
+ * closed. Analysis factories have none, so their handles are released with
+ * the lifecycle they belong to, e.g. when their index is closed or removed
+ * (see closeAll). Handles of factories built outside an index, e.g. by the
+ * _analyze API, or replaced by a search analyzer reload, are only released
+ * once the factory is garbage collected, so reference counts may lag until
+ * the next GC.
+ */
+public class TibetanDictionaryRegistry {
+
+    /**
+     * Key used for the dictionaries bundled with the plugin
+     */
+    public static final String DEFAULT_KEY = "default";
+
+    /**
+     * Loads a dictionary for a key that is not in the registry yet
+     */
+    @FunctionalInterface
+    public interface Loader {
+        TibetanDictionaryManager load() throws IOException;
+    }
+
+    // Releases handles of owners that have no close hook, such as analysis factories
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // Open handles of each lifecycle, compared by identity
+    private final Map<Object, Set<Handle>> lifecycles = new IdentityHashMap<>();
+
+    /**
+     * Acquire the dictionary for a key, loading it on first use
+     * The dictionary is loaded outside the registry's monitor, so other keys,
+     * releases and stats requests do not wait for it; callers acquiring the
+     * same key meanwhile wait for that one load. A failed load is dropped,
+     * so the next caller retries it.
+     * The returned handle must be closed when the holder no longer needs it
+     */
+    public Handle acquire(String key, Loader loader) throws IOException {
+        Entry entry;
+        boolean load;
+        synchronized (this) {
+            entry = entries.get(key);
+            load = entry == null;
+            if (load) {
+                entry = new Entry(key);
+                entries.put(key, entry);
+            }
+            entry.references++;
+        }
+        if (load) {
+            load(entry, loader);
+        }
+        try {
+            entry.loaded.join();
+        } catch (CompletionException e) {
+            // Callers that waited for the load see the loader's own exception
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+        return new Handle(this, entry);
+    }
+
+    private void load(Entry entry, Loader loader) {
+        try {
+            TibetanDictionaryManager dictionary = loader.load();
+            if (dictionary == null || !dictionary.isInitialized()) {
+                throw new IllegalStateException("Loader returned an uninitialized dictionary for [" + entry.key + "]");
+            }
+            entry.dictionary = dictionary;
+            entry.loaded.complete(dictionary);
+        } catch (Throwable t) {
+            synchronized (this) {
+                if (entries.get(entry.key) == entry) {
+                    entries.remove(entry.key);
+                }
+            }
+            entry.loaded.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Acquire the dictionaries bundled with the plugin
+     */
+    public Handle acquireDefault() throws IOException {
+        return acquire(DEFAULT_KEY, () -> {
+            TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+            dictionary.initialize();
+            return dictionary;
+        });
+    }
+
+    /**
+     * Release every handle tied to a lifecycle with Handle.closeWith
+     */
+    public void closeAll(Object lifecycle) {
+        Set<Handle> handles;
+        synchronized (this) {
+            handles = lifecycles.remove(lifecycle);
+        }
+        if (handles != null) {
+            for (Handle handle : handles) {
+                handle.close();
+            }
+        }
+    }
+
+    private synchronized void register(Object lifecycle, Handle handle) {
+        handle.lifecycle = lifecycle;
+        lifecycles.computeIfAbsent(lifecycle, k -> new HashSet<>()).add(handle);
+    }
+
+    private synchronized void attach(Handle handle, String component, TibetanSegmentationCache cache) {
+        if (!handle.closed.get()) {
+            handle.component = component;
+            handle.cache = cache;
+            handle.entry.cached.add(handle);
+        }
+    }
+
+    private synchronized void release(Handle handle) {
+        Entry entry = handle.entry;
+        entry.cached.remove(handle);
+        if (handle.lifecycle != null) {
+            Set<Handle> handles = lifecycles.get(handle.lifecycle);
+            if (handles != null && handles.remove(handle) && handles.isEmpty()) {
+                lifecycles.remove(handle.lifecycle);
+            }
+        }
+        entry.references--;
+        if (entry.references <= 0 && entries.get(entry.key) == entry) {
+            entries.remove(entry.key);
+        }
+    }
+
+    /**
+     * Get the number of holders of each loaded dictionary
+     * Dictionaries still loading are left out
+     */
+    public synchronized Map<String, Integer> getReferenceCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Entry entry : entries.values()) {
+            if (entry.dictionary != null) {
+                counts.put(entry.key, entry.references);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Get the loaded dictionaries by key
+     * Dictionaries still loading are left out
+     */
+    public synchronized Map<String, TibetanDictionaryManager> getDictionaries() {
+        Map<String, TibetanDictionaryManager> dictionaries = new TreeMap<>();
+        for (Entry entry : entries.values()) {
+            if (entry.dictionary != null) {
+                dictionaries.put(entry.key, entry.dictionary);
+            }
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Get the segmentation caches of the open handles of a dictionary, by component
+     * @param key Key of the dictionary
+     */
+    public synchronized Map<String, TibetanSegmentationCache> getSegmentationCaches(String key) {
+        Map<String, TibetanSegmentationCache> caches = new TreeMap<>();
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            for (Handle handle : entry.cached) {
+                caches.put(handle.component, handle.cache);
+            }
+        }
+        return caches;
+    }
+
+    /**
+     * Get the number of distinct dictionaries currently loaded
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drop all dictionaries, e.g. when the plugin is closed
+     * Outstanding handles keep their dictionary reachable until released
+     */
+    public synchronized void clear() {
+        entries.clear();
+        lifecycles.clear();
+    }
+
+    /**
+     * Inner class to hold a shared dictionary and its reference count
+     */
+    private static class Entry {
+        final String key;
+        // Completed outside the registry's monitor by the caller that loads the dictionary
+        final CompletableFuture<TibetanDictionaryManager> loaded = new CompletableFuture<>();
+        volatile TibetanDictionaryManager dictionary;
+        // Open handles with a segmentation cache, reported by the stats API
+        final Set<Handle> cached = new HashSet<>();
+        int references;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Reference to a shared dictionary, released on close
+     */
+    public static final class Handle implements Closeable {
+        private final TibetanDictionaryRegistry registry;
+        private final Entry entry;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private Object lifecycle;   // Guarded by the registry
+        private String component;   // Guarded by the registry
+        private TibetanSegmentationCache cache;
+
+        private Handle(TibetanDictionaryRegistry registry, Entry entry) {
+            this.registry = registry;
+            this.entry = entry;
+        }
+
+        public TibetanDictionaryManager get() {
+            return entry.dictionary;
+        }
+
+        public String getKey() {
+            return entry.key;
+        }
+
+        /**
+         * Release this handle once the owner is garbage collected
+         * For owners without a close hook, e.g. tokenizer and token filter
+         * factories; the release waits for a GC
+         */
+        public Handle closeWhenUnreachable(Object owner) {
+            CLEANER.register(owner, this::close);
+            return this;
+        }
+
+        /**
+         * Release this handle when its lifecycle is closed with closeAll, or
+         * once the owner is garbage collected, whichever comes first
+         * @param lifecycle Object identifying the lifecycle, e.g. the settings of an index
+         */
+        public Handle closeWith(Object lifecycle, Object owner) {
+            registry.register(lifecycle, this);
+            return closeWhenUnreachable(owner);
+        }
+
+        /**
+         * Report the segmentation cache of the component holding this handle
+         * in the stats API, until the handle is released
+         * @param component Name of the component, e.g. index/analyzer
+         */
+        public Handle withCache(String component, TibetanSegmentationCache cache) {
+            registry.attach(this, component, cache);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                registry.release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.tocharian.tibetan;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of segmentation results for Tibetan runs
+ * A run is a span of letters and tshegs between whitespace, shad or other
+ * non-Tibetan text. Segmentation never looks past the end of a run, so a
+ * cached result is exact wherever the run occurs. The cache is split into
+ * independently locked LRU segments to keep contention low across threads,
+ * and is bounded both by entry count and by weight: the chars of the run
+ * plus three per token, the ints RunRecorder stores for each token.
+ * Hits, misses and evictions are counted here only; _tibetan/stats reports
+ * them for each component with a cache.
+ */
+public class TibetanSegmentationCache {
+    
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_ENTRIES = 32;
+    
+    private final Segment[] segments;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    /**
+     * @param maxEntries Maximum number of cached runs
+     * @param maxWeight Maximum total weight of the cached runs
+     */
+    public TibetanSegmentationCache(int maxEntries, long maxWeight) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("cache size must be positive, got " + maxEntries);
+        }
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("cache weight must be positive, got " + maxWeight);
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        
+        int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_ENTRIES)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // Spread the remainder so the segment bounds add up to the configured ones
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0),
+                maxWeight / count + (i < maxWeight % count ? 1 : 0));
+        }
+    }
+    
+    /**
+     * Get the cached tokens of a run, counting a hit or a miss
+     */
+    int[] get(Key key) {
+        int[] tokens = segmentFor(key).get(key);
+        if (tokens != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return tokens;
+    }
+    
+    /**
+     * Cache the tokens of a run, evicting the least recently used runs of its segment
+     * Runs heavier than a whole segment are not cached
+     * @param key Key of the run; copied if it refers to the caller's buffer
+     */
+    void put(Key key, int[] tokens) {
+        segmentFor(key).put(key, tokens);
+    }
+    
+    private Segment segmentFor(Key key) {
+        int hash = key.hash;
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+    
+    public long getHitCount() {
+        return hits.sum();
+    }
+    
+    public long getMissCount() {
+        return misses.sum();
+    }
+    
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+    
+    /**
+     * Get the number of cached runs
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Get the total weight of the cached runs
+     */
+    public long weight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+    
+    /**
+     * Drop all cached runs; the counters are kept
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+    
+    /**
+     * Get cache statistics
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", getHitCount());
+        stats.put("misses", getMissCount());
+        stats.put("evictions", getEvictionCount());
+        stats.put("entries", (long) size());
+        stats.put("weight", weight());
+        stats.put("max_entries", (long) maxEntries);
+        stats.put("max_weight", maxWeight);
+        return stats;
+    }
+    
+    private static long weigh(Key key, int[] tokens) {
+        return key.length + tokens.length;
+    }
+    
+    /**
+     * Inner class holding one independently locked LRU map
+     */
+    private final class Segment {
+        final LinkedHashMap<Key, int[]> map = new LinkedHashMap<>(16, 0.75f, true);
+        final int maxEntries;
+        final long maxWeight;
+        long weight;
+        
+        Segment(int maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+        
+        synchronized int[] get(Key key) {
+            return map.get(key);
+        }
+        
+        synchronized void put(Key key, int[] tokens) {
+            long entryWeight = weigh(key, tokens);
+            if (entryWeight > maxWeight) {
+                return;
+            }
+            
+            Key owned = key.copy();
+            int[] previous = map.put(owned, tokens);
+            if (previous != null) {
+                weight -= weigh(owned, previous);
+            }
+            weight += entryWeight;
+            
+            Iterator<Map.Entry<Key, int[]>> eldest = map.entrySet().iterator();
+            while (map.size() > maxEntries || weight > maxWeight) {
+                Map.Entry<Key, int[]> entry = eldest.next();
+                weight -= weigh(entry.getKey(), entry.getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+    
+    /**
+     * Key of a run: a region of a char buffer
+     * Lookups use a key pointing into the caller's buffer, kept in the sink;
+     * stored keys own a copy of the run
+     */
+    static final class Key {
+        private char[] chars;
+        private int offset;
+        private int length;
+        private int hash;
+        
+        Key set(char[] chars, int offset, int length) {
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+            int h = 0;
+            for (int i = offset; i < offset + length; i++) {
+                h = 31 * h + chars[i];
+            }
+            this.hash = h;
+            return this;
+        }
+        
+        Key copy() {
+            Key key = new Key();
+            key.chars = Arrays.copyOfRange(chars, offset, offset + length);
+            key.length = length;
+            key.hash = hash;
+            return key;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && Arrays.equals(chars, offset, offset + length,
+                other.chars, other.offset, other.offset + other.length);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the segmentation done with one dictionary
+ * TibetanTokenizer counts into its sink over the calls of a document and
+ * adds the counts here when the document ends, so the hot path only
+ * touches plain fields of a per-thread object. The segmentation time of
+ * each document, summed over its calls, goes into a histogram of
+ * power-of-two microsecond buckets.
+ */
+public class TibetanSegmentationStats {
+    
+    // Bucket 0 counts documents under 1 us, bucket i documents in [2^(i-1), 2^i) us
+    private static final int LATENCY_BUCKETS = 32;
+    
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder chars = new LongAdder();
+    private final LongAdder syllables = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder[] tokens = newAdders(TibetanTokenizer.TOKEN_TYPES.length);
+    private final LongAdder[] latency = newAdders(LATENCY_BUCKETS);
+    
+    /**
+     * Add the counts of one document and reset them in the sink
+     */
+    void record(TibetanTokenSink sink) {
+        documents.increment();
+        calls.add(sink.calls);
+        chars.add(sink.chars);
+        sink.calls = 0;
+        sink.chars = 0;
+        int[] typeCounts = sink.typeCounts;
+        for (int type = 0; type < typeCounts.length; type++) {
+            if (typeCounts[type] != 0) {
+                tokens[type].add(typeCounts[type]);
+                typeCounts[type] = 0;
+            }
+        }
+        if (sink.syllables != 0) {
+            syllables.add(sink.syllables);
+            sink.syllables = 0;
+        }
+        nanos.add(sink.nanos);
+        latency[bucket(sink.nanos / 1000)].increment();
+        sink.nanos = 0;
+    }
+    
+    private static int bucket(long micros) {
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), LATENCY_BUCKETS - 1);
+    }
+    
+    /**
+     * Get the number of documents, i.e. texts or token streams segmented
+     */
+    public long getDocumentCount() {
+        return documents.sum();
+    }
+    
+    /**
+     * Get the number of chars segmented
+     */
+    public long getCharCount() {
+        return chars.sum();
+    }
+    
+    /**
+     * Get the number of tokens of a type, an index into TibetanTokenizer.TOKEN_TYPES
+     */
+    public long getTokenCount(int type) {
+        return tokens[type].sum();
+    }
+    
+    /**
+     * Get the number of Tibetan syllables segmented
+     */
+    public long getSyllableCount() {
+        return syllables.sum();
+    }
+    
+    /**
+     * Get the counters as a map, for stats APIs
+     * Dictionary hits are the Tibetan tokens found in the dictionary, misses
+     * the unknown syllables; the out-of-vocabulary rate is the share of
+     * unknown syllables among all Tibetan syllables.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long documentCount = documents.sum();
+        stats.put("documents", documentCount);
+        stats.put("calls", calls.sum());
+        stats.put("chars", chars.sum());
+        
+        Map<String, Long> byType = new LinkedHashMap<>();
+        long total = 0;
+        long hits = 0;
+        for (int type = 0; type < tokens.length; type++) {
+            long count = tokens[type].sum();
+            byType.put(TibetanTokenizer.TOKEN_TYPES[type], count);
+            total += count;
+            if (type < TibetanTokenizer.ALPHANUM && type != TibetanTokenizer.SUFFIX && type != TibetanTokenizer.UNKNOWN) {
+                hits += count;
+            }
+        }
+        long misses = tokens[TibetanTokenizer.UNKNOWN].sum();
+        long syllableCount = syllables.sum();
+        stats.put("tokens", total);
+        stats.put("tokens_by_type", byType);
+        stats.put("dictionary_hits", hits);
+        stats.put("dictionary_misses", misses);
+        stats.put("dictionary_hit_rate", rate(hits, hits + misses));
+        stats.put("syllables", syllableCount);
+        stats.put("oov_syllables", misses);
+        stats.put("oov_rate", rate(misses, syllableCount));
+        
+        Map<String, Object> latencyStats = new LinkedHashMap<>();
+        long[] histogram = new long[LATENCY_BUCKETS];
+        long timed = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            histogram[i] = latency[i].sum();
+            timed += histogram[i];
+        }
+        latencyStats.put("total_ms", nanos.sum() / 1_000_000);
+        latencyStats.put("mean_micros", documentCount == 0 ? 0 : nanos.sum() / 1000 / documentCount);
+        latencyStats.put("p50_micros", percentile(histogram, timed, 0.5));
+        latencyStats.put("p90_micros", percentile(histogram, timed, 0.9));
+        latencyStats.put("p99_micros", percentile(histogram, timed, 0.99));
+        stats.put("latency", latencyStats);
+        return stats;
+    }
+    
+    private static double rate(long count, long total) {
+        return total == 0 ? 0 : (double) count / total;
+    }
+    
+    /**
+     * Upper bound of the bucket holding a percentile, in microseconds
+     */
+    private static long percentile(long[] histogram, long total, double percentile) {
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+    
+    private static LongAdder[] newAdders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
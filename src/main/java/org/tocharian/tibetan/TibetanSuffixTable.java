@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import java.util.*;
+
+/**
+ * Reverse automaton over the grammatical suffixes and second suffixes
+ * Suffixes are matched from the end of a candidate backwards, so one walk
+ * of at most the longest suffix finds every suffix ending there. Nodes are
+ * stored in breadth-first order in flat arrays, like TibetanDictionaryTrie.
+ * When several suffixes match, the one listed first wins, as in suffixes.txt.
+ */
+final class TibetanSuffixTable {
+    
+    private static final char TSHEG = '་';
+    private static final String SA = "ས";
+    private static final int NONE = Integer.MAX_VALUE;
+    
+    private final char[] labels;        // Label of the edge leading to each node
+    private final int[] childStart;     // Children of node n are [childStart[n], childStart[n + 1])
+    private final int[] ranks;          // Position in the suffix list of the suffix ending at each node, or NONE
+    private final boolean[] second;     // Whether a second suffix ends at each node
+    private final int saNode;           // Node of the suffix ས, which yields to second suffixes
+    private final int maxLength;
+    
+    TibetanSuffixTable(List<String> suffixes, Collection<String> secondSuffixes) {
+        Map<String, Integer> ranksByKey = new HashMap<>();
+        Set<String> secondKeys = new HashSet<>();
+        for (int i = 0; i < suffixes.size(); i++) {
+            ranksByKey.putIfAbsent(reverse(suffixes.get(i)), i);
+        }
+        for (String secondSuffix : secondSuffixes) {
+            secondKeys.add(reverse(secondSuffix));
+        }
+        Set<String> keySet = new HashSet<>(ranksByKey.keySet());
+        keySet.addAll(secondKeys);
+        keySet.remove("");
+        String[] keys = keySet.toArray(new String[0]);
+        Arrays.sort(keys);
+        
+        int capacity = 1;
+        int longest = 0;
+        for (String key : keys) {
+            capacity += key.length();
+            longest = Math.max(longest, key.length());
+        }
+        char[] labels = new char[capacity];
+        int[] childStart = new int[capacity + 1];
+        int[] ranks = new int[capacity];
+        boolean[] second = new boolean[capacity];
+        int saNode = -1;
+        
+        // Breadth-first construction over ranges of the sorted reversed keys
+        int[] rangeLo = new int[capacity];
+        int[] rangeHi = new int[capacity];
+        int[] depths = new int[capacity];
+        rangeHi[0] = keys.length;
+        int nodeCount = 1;
+        
+        for (int node = 0; node < nodeCount; node++) {
+            int lo = rangeLo[node];
+            int hi = rangeHi[node];
+            int depth = depths[node];
+            
+            ranks[node] = NONE;
+            if (lo < hi && keys[lo].length() == depth) {
+                ranks[node] = ranksByKey.getOrDefault(keys[lo], NONE);
+                second[node] = secondKeys.contains(keys[lo]);
+                if (keys[lo].equals(SA)) {
+                    saNode = node;
+                }
+                lo++;
+            }
+            
+            childStart[node] = nodeCount;
+            while (lo < hi) {
+                char c = keys[lo].charAt(depth);
+                int groupEnd = lo + 1;
+                while (groupEnd < hi && keys[groupEnd].charAt(depth) == c) {
+                    groupEnd++;
+                }
+                labels[nodeCount] = c;
+                rangeLo[nodeCount] = lo;
+                rangeHi[nodeCount] = groupEnd;
+                depths[nodeCount] = depth + 1;
+                nodeCount++;
+                lo = groupEnd;
+            }
+        }
+        childStart[nodeCount] = nodeCount;
+        
+        this.labels = Arrays.copyOf(labels, nodeCount);
+        this.childStart = Arrays.copyOf(childStart, nodeCount + 1);
+        this.ranks = Arrays.copyOf(ranks, nodeCount);
+        this.second = Arrays.copyOf(second, nodeCount);
+        this.saNode = ranksByKey.containsKey(SA) ? saNode : -1;
+        this.maxLength = longest;
+    }
+    
+    /**
+     * Get the length of the grammatical suffix ending text[begin, end)
+     * ས is not a suffix when it closes a second suffix (གས, ངས, བས, མས)
+     * preceded by another letter of the syllable.
+     * @return the suffix length in chars, or 0 if there is none
+     */
+    int suffixLength(char[] text, int begin, int end) {
+        int length = end - begin;
+        int limit = Math.min(length, maxLength);
+        int bestRank = NONE;
+        int bestLength = 0;
+        int saLength = 0;
+        int secondLength = 0;
+        int node = 0;
+        
+        for (int depth = 1; depth <= limit; depth++) {
+            node = child(node, text[end - depth]);
+            if (node < 0) {
+                break;
+            }
+            if (second[node] && secondLength == 0) {
+                secondLength = depth;
+            }
+            if (node == saNode) {
+                saLength = depth;
+            } else if (ranks[node] < bestRank) {
+                bestRank = ranks[node];
+                bestLength = depth;
+            }
+        }
+        
+        if (saLength > 0 && ranks[saNode] < bestRank
+                && !(secondLength > 0 && length > secondLength && text[end - secondLength - 1] != TSHEG)) {
+            return saLength;
+        }
+        return bestLength;
+    }
+    
+    private int child(int node, char c) {
+        for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+            if (labels[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static String reverse(String s) {
+        return new StringBuilder(s).reverse().toString();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Interned syllables of the dictionary
+ * Every distinct syllable of the dictionary entries gets a compact int id,
+ * in sorted order, so the dictionary trie is walked one syllable id at a
+ * time. Syllables are resolved through a small character trie, one
+ * character at a time as the text is read.
+ */
+public final class TibetanSyllableLexicon {
+    
+    /**
+     * Id of a syllable that occurs in no dictionary entry
+     */
+    public static final int UNKNOWN = -1;
+    
+    /**
+     * Node id returned when a walk falls off the character trie
+     */
+    public static final int NO_NODE = -1;
+    
+    public static final int ROOT = 0;
+    
+    private final String[] syllables;   // Syllable of each id
+    private final char[] labels;        // Label of the edge leading to each node
+    private final int[] childStart;     // Children of node n are [childStart[n], childStart[n + 1])
+    private final int[] ids;            // Id of the syllable ending at each node, or UNKNOWN
+    
+    /**
+     * @param syllables Distinct syllables in sorted order; the index of each is its id
+     */
+    TibetanSyllableLexicon(String[] syllables) {
+        this.syllables = syllables;
+        
+        int capacity = 1;
+        for (String syllable : syllables) {
+            capacity += syllable.length();
+        }
+        char[] labels = new char[capacity];
+        int[] childStart = new int[capacity + 1];
+        int[] ids = new int[capacity];
+        
+        // Breadth-first construction over ranges of the sorted syllables, as in TibetanDictionaryTrie
+        int[] rangeLo = new int[capacity];
+        int[] rangeHi = new int[capacity];
+        int[] depths = new int[capacity];
+        rangeHi[ROOT] = syllables.length;
+        int nodeCount = 1;
+        
+        for (int node = 0; node < nodeCount; node++) {
+            int lo = rangeLo[node];
+            int hi = rangeHi[node];
+            int depth = depths[node];
+            
+            ids[node] = UNKNOWN;
+            if (lo < hi && syllables[lo].length() == depth) {
+                ids[node] = lo;
+                lo++;
+            }
+            
+            childStart[node] = nodeCount;
+            while (lo < hi) {
+                char c = syllables[lo].charAt(depth);
+                int groupEnd = lo + 1;
+                while (groupEnd < hi && syllables[groupEnd].charAt(depth) == c) {
+                    groupEnd++;
+                }
+                labels[nodeCount] = c;
+                rangeLo[nodeCount] = lo;
+                rangeHi[nodeCount] = groupEnd;
+                depths[nodeCount] = depth + 1;
+                nodeCount++;
+                lo = groupEnd;
+            }
+        }
+        childStart[nodeCount] = nodeCount;
+        
+        this.labels = Arrays.copyOf(labels, nodeCount);
+        this.childStart = Arrays.copyOf(childStart, nodeCount + 1);
+        this.ids = Arrays.copyOf(ids, nodeCount);
+    }
+    
+    /**
+     * Follow the edge labelled c from a node
+     * @return the child node, or NO_NODE if there is none
+     */
+    public int child(int node, char c) {
+        int low = childStart[node];
+        int high = childStart[node + 1] - 1;
+        
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = labels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NO_NODE;
+    }
+    
+    /**
+     * Get the id of the syllable ending at a node
+     * @return the id, or UNKNOWN if no syllable ends there
+     */
+    public int id(int node) {
+        return node == NO_NODE ? UNKNOWN : ids[node];
+    }
+    
+    /**
+     * Get the id of the syllable text[start, end)
+     * @return the id, or UNKNOWN if no dictionary entry has the syllable
+     */
+    public int id(CharSequence text, int start, int end) {
+        int node = ROOT;
+        for (int i = start; i < end && node != NO_NODE; i++) {
+            node = child(node, text.charAt(i));
+        }
+        return id(node);
+    }
+    
+    /**
+     * Get the id of the syllable text[start, end)
+     * @return the id, or UNKNOWN if no dictionary entry has the syllable
+     */
+    public int id(char[] text, int start, int end) {
+        int node = ROOT;
+        for (int i = start; i < end && node != NO_NODE; i++) {
+            node = child(node, text[i]);
+        }
+        return id(node);
+    }
+    
+    /**
+     * Get the syllable of an id
+     */
+    public String syllable(int id) {
+        return syllables[id];
+    }
+    
+    /**
+     * Number of distinct syllables
+     */
+    public int size() {
+        return syllables.length;
+    }
+    
+    /**
+     * Approximate heap used by the node arrays and syllables, in bytes
+     */
+    public long ramBytesUsed() {
+        long bytes = (long) labels.length * Character.BYTES
+            + (long) childStart.length * Integer.BYTES
+            + (long) ids.length * Integer.BYTES;
+        for (String syllable : syllables) {
+            bytes += 48 + (long) syllable.length() * Character.BYTES;
+        }
+        return bytes;
+    }
+    
+    /**
+     * Write the syllables as their lengths and characters, for TibetanDictionaryImage
+     * The character trie is rebuilt when the image is read
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(syllables.length);
+        for (String syllable : syllables) {
+            out.writeInt(syllable.length());
+        }
+        for (String syllable : syllables) {
+            out.writeChars(syllable);
+        }
+    }
+    
+    /**
+     * Read syllables written by writeTo
+     */
+    static TibetanSyllableLexicon readFrom(ByteBuffer in) {
+        int[] lengths = new int[in.getInt()];
+        in.asIntBuffer().get(lengths);
+        in.position(in.position() + lengths.length * Integer.BYTES);
+        
+        String[] syllables = new String[lengths.length];
+        char[] chars = new char[64];
+        for (int i = 0; i < syllables.length; i++) {
+            if (lengths[i] > chars.length) {
+                chars = new char[lengths[i]];
+            }
+            in.asCharBuffer().get(chars, 0, lengths[i]);
+            in.position(in.position() + lengths[i] * Character.BYTES);
+            syllables[i] = new String(chars, 0, lengths[i]);
+        }
+        return new TibetanSyllableLexicon(syllables);
+    }
+}
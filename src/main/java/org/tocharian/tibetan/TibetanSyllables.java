@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.tocharian.tibetan.utils.TibetanCharacterUtils;
+
+import java.util.*;
+
+/**
+ * Syllables of a text, as spans between tshegs
+ * Syllables are read as TibetanTokenizer reads them. Syllables joined by
+ * a tsheg form a run; any other character, e.g. shad or a space, ends the
+ * run, so grams of syllables never span two runs. The arrays are reused,
+ * so one instance should be reused for every text of a thread.
+ */
+public final class TibetanSyllables {
+    
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] runEnds = new int[16];    // Index after the last syllable of the run of each syllable
+    private int size;
+    
+    /**
+     * Split text[start, end) into syllables
+     * Both the tsheg and the non-breaking tsheg separate syllables.
+     * @return the number of syllables
+     */
+    public int split(char[] text, int start, int end) {
+        size = 0;
+        int runStart = 0;
+        int pos = start;
+        while (pos < end) {
+            if (!TibetanCharacterUtils.isTibetanCharacter(text[pos])) {
+                pos++;
+                continue;
+            }
+            int syllableEnd = TibetanCharacterUtils.syllableEnd(text, pos, end);
+            add(pos, syllableEnd);
+            pos = syllableEnd;
+            if (pos + 1 < end && isTsheg(text[pos]) && TibetanCharacterUtils.isTibetanCharacter(text[pos + 1])) {
+                pos++;
+            } else {
+                Arrays.fill(runEnds, runStart, size, size);
+                runStart = size;
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Number of syllables found by the last split
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Start of a syllable in the text
+     */
+    public int start(int index) {
+        return starts[index];
+    }
+    
+    /**
+     * End of a syllable in the text (exclusive)
+     */
+    public int end(int index) {
+        return ends[index];
+    }
+    
+    /**
+     * Index after the last syllable of the run a syllable belongs to
+     */
+    public int runEnd(int index) {
+        return runEnds[index];
+    }
+    
+    private void add(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            runEnds = Arrays.copyOf(runEnds, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+    
+    private static boolean isTsheg(char c) {
+        return c == '་' || c == '༌';
+    }
+}
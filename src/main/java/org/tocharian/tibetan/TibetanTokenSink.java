@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+/**
+ * Receiver of tokens produced by TibetanTokenizer
+ * Tokens are reported as offsets into the caller's buffer, so no String is
+ * created per token. A sink also carries the tokenizer's scratch state, so
+ * one instance should be reused for every text of a single thread.
+ */
+public abstract class TibetanTokenSink {
+
+    // Scratch state of TibetanTokenizer, reused across calls
+    final TibetanTokenizer.SyllableRun run = new TibetanTokenizer.SyllableRun();
+    final TibetanTokenizer.LookupResult match = new TibetanTokenizer.LookupResult();
+    final TibetanTokenizer.Lattice lattice = new TibetanTokenizer.Lattice();
+    final TibetanSegmentationCache.Key cacheKey = new TibetanSegmentationCache.Key();
+    TibetanTokenizer.RunRecorder recorder;
+    TibetanTokenizer.Subwords subwords;
+
+    // Counts of the current document, added to the dictionary's TibetanSegmentationStats when it ends
+    final int[] typeCounts = new int[TibetanTokenizer.TOKEN_TYPES.length];
+    int syllables;
+    int calls;
+    long chars;
+    long nanos;
+
+    /**
+     * Receive one token
+     * @param text The buffer being tokenized
+     * @param start Start of the token in the buffer
+     * @param end End of the token in the buffer (exclusive)
+     * @param ashung Whether the token is an ashung root, spelled with a final འ
+     *               that is not present in the buffer
+     * @param type Type of the token, an index into TibetanTokenizer.TOKEN_TYPES
+     */
+    public abstract void token(char[] text, int start, int end, boolean ashung, int type);
+
+    /**
+     * Receive one token of a token graph, in search mode
+     * A word is reported with the number of positions its sub-words take,
+     * then its sub-words follow, the first at the same position. Sinks that
+     * do not track positions receive the sub-words as further tokens.
+     * @param positionIncrement 0 for the first sub-word of a word, else 1
+     * @param positionLength Number of positions the token spans
+     */
+    public void token(char[] text, int start, int end, boolean ashung, int type, int positionIncrement, int positionLength) {
+        token(text, start, end, ashung, type);
+    }
+}
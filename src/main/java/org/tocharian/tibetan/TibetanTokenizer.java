@@ -16,24 +16,167 @@
 package org.tocharian.tibetan;
 
 import org.tocharian.tibetan.utils.TibetanCharacterUtils;
+import org.tocharian.tibetan.utils.TibetanNormalizer;
 
 import java.util.*;
 
 /**
  * Tibetan tokenizer
- * Implements longest-match algorithm for Tibetan word segmentation
+ * Implements longest-match algorithm for Tibetan word segmentation, or
+ * optionally the most probable segmentation of each run under a unigram model
  */
 public class TibetanTokenizer {
     
+    /**
+     * Segmentation algorithm
+     */
+    public enum Mode {
+        /** Longest dictionary match at each position */
+        GREEDY,
+        /** Segmentation of each run with the least total cost of its tokens */
+        VITERBI
+    }
+    
     private final TibetanDictionaryManager dictionary;
+    private final boolean splitSuffixes;
+    private final TibetanSegmentationCache cache;
+    private final int maxSyllables;
+    private final Mode mode;
+    private final boolean searchMode;
     private final boolean debug = false;
     
     // Characters to insert between tokens
     private static final String SPACE_MARKER = " ";
     private static final String PARTICLE_MARKER = "";  // Particles don't get space before them
     
+    private static final char TSHEG = '་';
+    private static final char ASHUNG = 'འ';
+    
+    /**
+     * Longest candidate tried at each position, in syllables, for a
+     * dictionary that is not initialized yet
+     */
+    public static final int DEFAULT_MAX_SYLLABLES = 4;
+    
+    /**
+     * Upper bound of a configured window; the trie walk ends at the longest
+     * entry anyway, but a chunk must hold a full window
+     */
+    public static final int MAX_SYLLABLES_LIMIT = 32;
+    
+    /**
+     * Token types, as indices into TOKEN_TYPES
+     * Tibetan tokens are typed by the dictionary list they matched, split-off
+     * suffixes and unmatched syllables have their own types; the types of
+     * other scripts, all from ALPHANUM on, follow Lucene's StandardTokenizer
+     */
+    public static final int WORD = 0;
+    public static final int PARTICLE = 1;
+    public static final int VERB = 2;
+    public static final int CUSTOM = 3;
+    public static final int SUFFIX = 4;
+    public static final int UNKNOWN = 5;
+    public static final int ALPHANUM = 6;
+    public static final int NUM = 7;
+    public static final int IDEOGRAPHIC = 8;
+    public static final int HIRAGANA = 9;
+    public static final int KATAKANA = 10;
+    public static final int HANGUL = 11;
+    public static final int EMOJI = 12;
+    public static final int PUNCTUATION = 13;
+    
+    public static final String[] TOKEN_TYPES = {
+        "word", "particle", "verb", "custom", "suffix", "unknown",
+        "<ALPHANUM>", "<NUM>", "<IDEOGRAPHIC>", "<HIRAGANA>", "<KATAKANA>", "<HANGUL>", "<EMOJI>", "<PUNCT>"
+    };
+    
+    // No dictionary match
+    private static final int NO_MATCH = -1;
+    
     public TibetanTokenizer(TibetanDictionaryManager dictionary) {
+        this(dictionary, true);
+    }
+    
+    /**
+     * @param splitSuffixes Whether a word followed by a grammatical suffix is
+     *                      emitted as root and suffix, or as one token
+     */
+    public TibetanTokenizer(TibetanDictionaryManager dictionary, boolean splitSuffixes) {
+        this(dictionary, splitSuffixes, null);
+    }
+    
+    /**
+     * @param cache Cache of run segmentations, or null to segment every run;
+     *              a cache must not be shared with tokenizers on other options
+     */
+    public TibetanTokenizer(TibetanDictionaryManager dictionary, boolean splitSuffixes, TibetanSegmentationCache cache) {
+        this(dictionary, splitSuffixes, cache, 0);
+    }
+    
+    /**
+     * @param maxSyllables Longest candidate tried at each position, in
+     *                     syllables, or 0 for the longest dictionary entry
+     */
+    public TibetanTokenizer(TibetanDictionaryManager dictionary, boolean splitSuffixes,
+                            TibetanSegmentationCache cache, int maxSyllables) {
+        this(dictionary, splitSuffixes, cache, maxSyllables, Mode.GREEDY);
+    }
+    
+    /**
+     * @param mode Segmentation algorithm
+     */
+    public TibetanTokenizer(TibetanDictionaryManager dictionary, boolean splitSuffixes,
+                            TibetanSegmentationCache cache, int maxSyllables, Mode mode) {
+        this(dictionary, splitSuffixes, cache, maxSyllables, mode, false);
+    }
+    
+    /**
+     * @param searchMode Whether a word of three or more syllables is followed
+     *                   by the dictionary words it is made of, as a token graph
+     */
+    public TibetanTokenizer(TibetanDictionaryManager dictionary, boolean splitSuffixes,
+                            TibetanSegmentationCache cache, int maxSyllables, Mode mode, boolean searchMode) {
+        if (maxSyllables < 0 || maxSyllables > MAX_SYLLABLES_LIMIT) {
+            throw new IllegalArgumentException("max syllables must be between 0 and " + MAX_SYLLABLES_LIMIT + ", got " + maxSyllables);
+        }
         this.dictionary = dictionary;
+        this.splitSuffixes = splitSuffixes;
+        this.cache = cache;
+        if (maxSyllables == 0) {
+            int longest = dictionary.getMaxSyllables();
+            maxSyllables = longest > 0 ? Math.min(longest, MAX_SYLLABLES_LIMIT) : DEFAULT_MAX_SYLLABLES;
+        }
+        this.maxSyllables = maxSyllables;
+        this.mode = Objects.requireNonNull(mode, "mode");
+        this.searchMode = searchMode;
+    }
+    
+    /**
+     * Get the longest candidate tried at each position, in syllables
+     */
+    public int getMaxSyllables() {
+        return maxSyllables;
+    }
+    
+    /**
+     * Get the segmentation algorithm
+     */
+    public Mode getMode() {
+        return mode;
+    }
+    
+    /**
+     * Check if words are followed by their sub-words
+     */
+    public boolean isSearchMode() {
+        return searchMode;
+    }
+    
+    /**
+     * Get the segmentation cache, or null if runs are not cached
+     */
+    public TibetanSegmentationCache getSegmentationCache() {
+        return cache;
     }
     
     /**
@@ -46,270 +189,813 @@ public class TibetanTokenizer {
             return Collections.emptyList();
         }
         
-        text = TibetanCharacterUtils.normalizeText(text);
-        String[] symbols = TibetanCharacterUtils.getSymbols(text);
         List<String> result = new ArrayList<>();
+        // Full normalization in place; the char[] API only maps tsheg shad
+        char[] buffer = text.toCharArray();
+        int length = TibetanNormalizer.normalize(buffer, 0, buffer.length);
+        tokenize(buffer, 0, length, new TibetanTokenSink() {
+            @Override
+            public void token(char[] text, int start, int end, boolean ashung, int type) {
+                String token = new String(text, start, end - start);
+                result.add(ashung ? token + ASHUNG : token);
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Tokenize text[offset, offset + length) into a sink
+     * Tsheg shad (༌) is normalized to tsheg (་) in place, which keeps
+     * every token at its original offsets. Whitespace is skipped, and text
+     * in other scripts is grouped into words, numbers and single symbols.
+     * @param text Buffer holding the text
+     * @param offset Start of the text in the buffer
+     * @param length Length of the text
+     * @param sink Receives the tokens in order; reuse one per thread
+     */
+    public void tokenize(char[] text, int offset, int length, TibetanTokenSink sink) {
+        tokenize(text, offset, length, true, sink);
+        endDocument(sink);
+    }
+    
+    /**
+     * Tokenize a chunk of a longer text into a sink
+     * Unless the chunk is the end of the input, segmentation stops at the
+     * last position from which the result cannot depend on text beyond the
+     * chunk: any boundary before the final Tibetan run (shad, whitespace or
+     * other non-Tibetan character), or inside that run while a full window
+     * of syllables, up to the tsheg that closes it, is still in the chunk.
+     * In viterbi mode the final run is left whole, as its segmentation may
+     * change up to its end. A token of another script reaching the end of
+     * the chunk is left too.
+     * The caller passes the unconsumed rest again with the next chunk, and
+     * calls endDocument once the whole document is tokenized.
+     * @param text Buffer holding the chunk
+     * @param offset Start of the chunk in the buffer
+     * @param length Length of the chunk
+     * @param endOfInput Whether no text follows the chunk
+     * @param sink Receives the tokens in order; reuse one per thread
+     * @return the position in the buffer up to which text was consumed
+     */
+    public int tokenize(char[] text, int offset, int length, boolean endOfInput, TibetanTokenSink sink) {
+        long started = System.nanoTime();
+        int limit = offset + length;
+        sink.run.size = 0;
+        TibetanCharacterUtils.normalizeTsheg(text, offset, length);
         
-        int beginIndex = 0;
+        // Starts before the final run are always safe; starts inside it need a full window
+        int tailStart = endOfInput ? limit : tailRunStart(text, offset, limit);
         
-        while (beginIndex < symbols.length) {
-            // Skip non-Tibetan characters
-            while (beginIndex < symbols.length && !isTibetanText(symbols[beginIndex])) {
-                if (!symbols[beginIndex].trim().isEmpty()) {
-                    result.add(symbols[beginIndex]);
+        int beginIndex = offset;
+        
+        while (beginIndex < limit) {
+            char c = text[beginIndex];
+            
+            // Non-Tibetan text: whitespace, or a token of another script
+            if (!TibetanCharacterUtils.isTibetanCharacter(c)) {
+                int next = nonTibetanToken(text, beginIndex, limit, endOfInput, sink);
+                if (next < 0) {
+                    // The token may go on in the next chunk
+                    break;
                 }
-                beginIndex++;
+                beginIndex = next;
+                continue;
             }
             
-            if (beginIndex >= symbols.length) {
-                break;
+            if (cache != null || mode == Mode.VITERBI) {
+                // Whole runs are cached and searched, once their end is known
+                int runEnd = runEnd(text, beginIndex, limit);
+                if (runEnd < limit || endOfInput) {
+                    if (cache != null) {
+                        segmentCached(text, beginIndex, runEnd, sink);
+                    } else {
+                        segmentViterbi(text, beginIndex, runEnd, sink);
+                    }
+                    beginIndex = runEnd;
+                    continue;
+                }
+                if (mode == Mode.VITERBI) {
+                    break;
+                }
             }
             
-            // Get next syllables (up to 4)
-            SyllableInfo syllables = getNextSyllables(symbols, beginIndex, 4);
-            int nbSyllables = syllables.nbSyllables;
+            if (beginIndex >= tailStart && !hasFullWindow(text, beginIndex, limit)) {
+                break;
+            }
             
-            if (nbSyllables < 1) {
-                beginIndex++;
-                continue;
+            beginIndex = segmentWord(text, beginIndex, limit, sink);
+        }
+        
+        sink.calls++;
+        sink.chars += beginIndex - offset;
+        sink.nanos += System.nanoTime() - started;
+        return beginIndex;
+    }
+    
+    /**
+     * End a document tokenized in chunks
+     * Adds the counts the sink gathered over the document's calls to the
+     * segmentation stats of the dictionary, so shared counters are updated
+     * once per document rather than once per call.
+     */
+    public void endDocument(TibetanTokenSink sink) {
+        dictionary.getSegmentationStats().record(sink);
+    }
+    
+    /**
+     * Segment the longest match at a Tibetan letter into a sink
+     * @return the position after the match and the tsheg that follows it
+     */
+    private int segmentWord(char[] text, int begin, int limit, TibetanTokenSink sink) {
+        // Longest match algorithm
+        LookupResult match = sink.match;
+        findLongestMatch(text, begin, limit, maxSyllables, match, sink.run);
+        
+        sink.syllables += match.type != NO_MATCH ? match.syllables : 1;
+        if (match.type != NO_MATCH && match.suffixLength > 0 && splitSuffixes) {
+            // Split root and suffix; ashung roots are reconstructed with འ
+            int splitPoint = match.end - match.suffixLength;
+            emitWord(sink, text, begin, splitPoint, match.ashung, match.type);
+            emit(sink, text, splitPoint, match.end, false, SUFFIX);
+        } else if (match.type != NO_MATCH) {
+            // Whole match, suffix included when not splitting
+            emitWord(sink, text, begin, match.end, false, match.type);
+        } else {
+            // The first syllable, if nothing matched
+            emit(sink, text, begin, match.end, false, UNKNOWN);
+        }
+        
+        int next = match.end;
+        
+        // Skip tsheg after the word
+        if (next < limit && text[next] == TSHEG) {
+            next++;
+        }
+        return next;
+    }
+    
+    /**
+     * Segment text[begin, end), from a Tibetan letter to the end of its run,
+     * replaying the cached tokens of the run if there are any
+     */
+    private void segmentCached(char[] text, int begin, int end, TibetanTokenSink sink) {
+        TibetanSegmentationCache.Key key = sink.cacheKey.set(text, begin, end - begin);
+        int[] tokens = cache.get(key);
+        if (tokens == null) {
+            RunRecorder recorder = sink.recorder;
+            if (recorder == null) {
+                recorder = sink.recorder = new RunRecorder();
             }
+            recorder.begin = begin;
+            recorder.size = 0;
+            recorder.run.size = 0;
+            // Tokens are counted when replayed, not when recorded
+            Arrays.fill(recorder.typeCounts, 0);
+            recorder.syllables = 0;
             
-            // Longest match algorithm
-            boolean found = false;
-            while (nbSyllables >= 1) {
-                LookupResult lookupResult = lookupStr(nbSyllables, syllables.str);
-                
-                if (lookupResult != null) {
-                    // Found a match
-                    String token = syllables.str;
-                    
-                    // Handle suffix reconstruction for ashung words
-                    if (lookupResult.ashung && lookupResult.suffixLength > 0) {
-                        // Reconstruct with འ prefix
-                        int splitPoint = token.length() - lookupResult.suffixLength;
-                        String root = token.substring(0, splitPoint);
-                        String suffix = token.substring(splitPoint);
-                        result.add(root + "འ");
-                        result.add(suffix);
-                    } else if (lookupResult.suffixLength > 0) {
-                        // Split root and suffix
-                        int splitPoint = token.length() - lookupResult.suffixLength;
-                        String root = token.substring(0, splitPoint);
-                        String suffix = token.substring(splitPoint);
-                        result.add(root);
-                        result.add(suffix);
+            if (mode == Mode.VITERBI) {
+                segmentViterbi(text, begin, end, recorder);
+            } else {
+                int pos = begin;
+                while (pos < end) {
+                    if (text[pos] == TSHEG) {
+                        // A stray tsheg, as the main loop emits it
+                        recorder.token(text, pos, pos + 1, false, PUNCTUATION);
+                        pos++;
                     } else {
-                        result.add(token);
-                    }
-                    
-                    beginIndex += syllables.strLen;
-                    
-                    // Skip tsheg after the word
-                    if (beginIndex < symbols.length && 
-                        (symbols[beginIndex].equals("་") || symbols[beginIndex].equals("༌"))) {
-                        beginIndex++;
-                    }
-                    
-                    found = true;
-                    break;
-                } else {
-                    // No match, try fewer syllables
-                    nbSyllables--;
-                    if (nbSyllables > 0) {
-                        syllables = getNextSyllables(symbols, beginIndex, nbSyllables);
+                        pos = segmentWord(text, pos, end, recorder);
                     }
                 }
             }
             
-            // If no match found, treat as unknown
-            if (!found) {
-                syllables = getNextSyllables(symbols, beginIndex, 1);
-                if (syllables.nbSyllables > 0) {
-                    result.add(syllables.str);
-                    beginIndex += syllables.strLen;
-                    
-                    // Skip tsheg
-                    if (beginIndex < symbols.length && 
-                        (symbols[beginIndex].equals("་") || symbols[beginIndex].equals("༌"))) {
-                        beginIndex++;
+            tokens = Arrays.copyOf(recorder.tokens, recorder.size);
+            cache.put(key, tokens);
+        }
+        
+        for (int i = 0; i < tokens.length; i += 3) {
+            int start = begin + tokens[i];
+            int tokenEnd = begin + (tokens[i + 1] >> 1);
+            int type = tokens[i + 2];
+            if (type < ALPHANUM && type != SUFFIX) {
+                sink.syllables++;
+                for (int pos = start + 1; pos < tokenEnd; pos++) {
+                    if (text[pos] == TSHEG) {
+                        sink.syllables++;
                     }
-                } else {
-                    beginIndex++;
                 }
             }
+            emitWord(sink, text, start, tokenEnd, (tokens[i + 1] & 1) != 0, type);
         }
-        
-        return result;
     }
     
     /**
-     * Lookup a string in the dictionary
-     * Returns null if not found, otherwise returns lookup result with suffix info
+     * Segment the run text[begin, end) into the sequence of dictionary
+     * matches and unknown syllables with the least total cost
+     * The candidates at each syllable are the matches findLongestMatch
+     * would check, suffix splits included, plus the syllable on its own as
+     * an unknown token. The search runs backward over the syllables, so
+     * of paths with equal cost the one with the longer first token wins,
+     * as in greedy segmentation. Time is linear in the syllables of the
+     * run times the window.
      */
-    private LookupResult lookupStr(int nbSyllables, String str) {
-        if (str == null || str.isEmpty()) {
-            return null;
-        }
+    private void segmentViterbi(char[] text, int begin, int end, TibetanTokenSink sink) {
+        TibetanDictionaryTrie trie = dictionary.getTrie();
+        SyllableRun run = sink.run;
+        LookupResult match = sink.match;
+        Lattice lattice = sink.lattice;
         
-        // Priority order: particles > verbs > words > custom
-        if (dictionary.isParticle(str)) {
-            return new LookupResult("particle", 0, false);
+        // Every syllable of the run; a stray tsheg is an empty syllable at the tsheg
+        run.size = 0;
+        int pos = begin;
+        while (true) {
+            resolveSyllable(text, pos, end, trie.getLexicon(), run);
+            int syllableEnd = run.ends[run.size - 1];
+            if (syllableEnd + 1 >= end) {
+                break;
+            }
+            pos = syllableEnd + 1;
         }
         
-        if (dictionary.isVerb(str)) {
-            return new LookupResult("verb", 0, false);
+        int size = run.size;
+        lattice.ensureCapacity(size);
+        long[] costs = lattice.costs;
+        costs[size] = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            int start = run.starts[i];
+            if (run.ends[i] == start) {
+                // A stray tsheg, as the main loop emits it
+                lattice.set(i, 0, start + 1, PUNCTUATION, 0, false, costs[i + 1]);
+                continue;
+            }
+            
+            lattice.set(i, 1, run.ends[i], UNKNOWN, 0, false, trie.unknownCost() + costs[i + 1]);
+            int node = TibetanDictionaryTrie.ROOT;
+            for (int j = i; j < size; j++) {
+                int syllableEnd = run.ends[j];
+                int syllables = j - i + 1;
+                boolean runEnd = syllableEnd >= end;
+                
+                int wordNode = trie.child(node, run.ids[j]);
+                boolean found;
+                if (!runEnd && syllables < maxSyllables && isRunEnd(text, syllableEnd + 1, end)) {
+                    // As in findLongestMatch, a tsheg ending the run keeps word lists out of the first probe
+                    found = lookupAt(text, start, syllableEnd, wordNode, node, run.starts[j], match, false)
+                        || lookupAt(text, start, syllableEnd, wordNode, node, run.starts[j], match, true);
+                } else {
+                    found = lookupAt(text, start, syllableEnd, wordNode, node, run.starts[j], match, true);
+                }
+                if (found) {
+                    long cost = trie.cost(match.node) + costs[j + 1];
+                    if (cost <= costs[i]) {
+                        lattice.set(i, syllables, syllableEnd, match.type, match.suffixLength, match.ashung, cost);
+                    }
+                }
+                if (!trie.hasChildren(wordNode) || syllables >= maxSyllables || runEnd || isRunEnd(text, syllableEnd + 1, end)) {
+                    break;
+                }
+                node = wordNode;
+            }
         }
         
-        if (dictionary.containsWord(str, nbSyllables)) {
-            return new LookupResult("word", 0, false);
+        // Emit the best path from the start of the run
+        for (int i = 0; i < size; ) {
+            int start = run.starts[i];
+            int tokenEnd = lattice.ends[i];
+            int type = lattice.types[i];
+            int suffixLength = lattice.suffixLengths[i];
+            sink.syllables += lattice.syllables[i];
+            if (suffixLength > 0 && splitSuffixes) {
+                int splitPoint = tokenEnd - suffixLength;
+                emitWord(sink, text, start, splitPoint, lattice.ashung[i], type);
+                emit(sink, text, splitPoint, tokenEnd, false, SUFFIX);
+            } else {
+                emitWord(sink, text, start, tokenEnd, false, type);
+            }
+            i += Math.max(lattice.syllables[i], 1);
+        }
+    }
+    
+    /**
+     * Pass a token to the sink; in search mode a dictionary word of three or
+     * more syllables spans the positions of its sub-words, which follow it
+     * Words whose parts are not all dictionary words, ashung roots and
+     * tokens recorded for the cache, which get their sub-words when
+     * replayed, are passed on as they are.
+     */
+    private void emitWord(TibetanTokenSink sink, char[] text, int start, int end, boolean ashung, int type) {
+        if (!searchMode || type >= SUFFIX || ashung || sink instanceof RunRecorder) {
+            emit(sink, text, start, end, ashung, type);
+            return;
+        }
+        Subwords parts = sink.subwords;
+        if (parts == null) {
+            parts = sink.subwords = new Subwords();
+        }
+        if (!decompose(text, start, end, parts)) {
+            emit(sink, text, start, end, false, type);
+            return;
         }
         
-        if (dictionary.isCustomWord(str)) {
-            return new LookupResult("custom", 0, false);
+        sink.typeCounts[type]++;
+        sink.token(text, start, end, false, type, 1, parts.size);
+        for (int i = 0; i < parts.size; i++) {
+            sink.typeCounts[parts.types[i]]++;
+            sink.token(text, parts.starts[i], parts.ends[i], false, parts.types[i], i == 0 ? 0 : 1, 1);
+        }
+    }
+    
+    /**
+     * Split the word text[start, end) into shorter dictionary words by
+     * longest match, with a window of one syllable less than the word
+     * Words of two syllables are left whole: nearly every syllable is an
+     * entry, so their parts would double the index for little recall.
+     * @return true if the word has three or more syllables and every part
+     *         is a whole dictionary entry
+     */
+    private boolean decompose(char[] text, int start, int end, Subwords parts) {
+        int window = 0;
+        for (int pos = start; pos < end; pos++) {
+            if (text[pos] == TSHEG) {
+                window++;
+            }
+        }
+        if (window < 2) {
+            return false;
         }
         
-        // Try removing suffix
-        int suffixLength = getSuffixLength(str);
-        if (suffixLength > 0) {
-            String root = str.substring(0, str.length() - suffixLength);
-            
-            if (root.isEmpty()) {
-                return null;
+        parts.size = 0;
+        parts.run.size = 0;
+        int pos = start;
+        while (pos < end) {
+            LookupResult match = parts.match;
+            findLongestMatch(text, pos, end, window, match, parts.run);
+            if (match.type == NO_MATCH || match.suffixLength > 0) {
+                return false;
             }
-            
-            // Check ashung forms first
-            if (dictionary.isVerbAshung(root)) {
-                return new LookupResult("verb", suffixLength, true);
+            parts.starts[parts.size] = pos;
+            parts.ends[parts.size] = match.end;
+            parts.types[parts.size] = match.type;
+            parts.size++;
+            pos = match.end + 1;
+        }
+        return true;
+    }
+    
+    /**
+     * Pass a token to the sink, counting it for the statistics
+     */
+    private static void emit(TibetanTokenSink sink, char[] text, int start, int end, boolean ashung, int type) {
+        sink.typeCounts[type]++;
+        sink.token(text, start, end, ashung, type);
+    }
+    
+    /**
+     * Emit the non-Tibetan token starting at begin, unless it is whitespace
+     * or punctuation of another script
+     * Letters and digits are grouped into one token, also across a period or
+     * apostrophe between two letters or two digits, and a comma between two
+     * digits. Katakana and Hangul are grouped by script. Han ideographs,
+     * hiragana, emoji and Tibetan marks such as shad are one token each.
+     * Other punctuation and symbols are skipped, as by Lucene's standard
+     * tokenizer. Combining marks stay with the preceding character.
+     * @return the end of the token, or -1 if it may go on beyond the chunk
+     */
+    private static int nonTibetanToken(char[] text, int begin, int limit, boolean endOfInput, TibetanTokenSink sink) {
+        if (Character.isHighSurrogate(text[begin]) && begin + 1 == limit && !endOfInput) {
+            // The low surrogate is in the next chunk
+            return -1;
+        }
+        int codePoint = Character.codePointAt(text, begin, limit);
+        int end = begin + Character.charCount(codePoint);
+        if (codePoint <= ' ' || Character.isWhitespace(codePoint) || Character.isSpaceChar(codePoint)) {
+            return end;
+        }
+        
+        int type = charType(codePoint);
+        int lastType = type;
+        boolean grouped = type == ALPHANUM || type == NUM || type == KATAKANA || type == HANGUL;
+        while (true) {
+            if (end >= limit || (Character.isHighSurrogate(text[end]) && end + 1 == limit)) {
+                if (!endOfInput) {
+                    return -1;
+                }
+                break;
             }
-            
-            if (dictionary.isWordAshung(root)) {
-                return new LookupResult("word", suffixLength, true);
+            int next = Character.codePointAt(text, end, limit);
+            if (isExtend(next)) {
+                end += Character.charCount(next);
+                continue;
             }
-            
-            // Check regular forms
-            if (dictionary.isVerb(root)) {
-                return new LookupResult("verb", suffixLength, false);
+            if (!grouped || TibetanCharacterUtils.isTibetanCharacter(next)) {
+                break;
             }
             
-            if (dictionary.isParticle(root)) {
-                return new LookupResult("particle", suffixLength, false);
+            int nextType = charType(next);
+            if (type == KATAKANA || type == HANGUL) {
+                if (nextType != type) {
+                    break;
+                }
+            } else if (nextType == ALPHANUM || nextType == NUM) {
+                if (nextType == ALPHANUM) {
+                    type = ALPHANUM;
+                }
+                lastType = nextType;
+            } else if (isMidChar(next, lastType)) {
+                // Joins only if the same kind of character follows
+                if (end + 1 >= limit || (Character.isHighSurrogate(text[end + 1]) && end + 2 == limit)) {
+                    if (!endOfInput) {
+                        return -1;
+                    }
+                    break;
+                }
+                int after = Character.codePointAt(text, end + 1, limit);
+                if (TibetanCharacterUtils.isTibetanCharacter(after) || charType(after) != lastType) {
+                    break;
+                }
+            } else {
+                break;
             }
-            
-            if (dictionary.containsWord(root, nbSyllables)) {
-                return new LookupResult("word", suffixLength, false);
+            end += Character.charCount(next);
+        }
+        
+        if (type != PUNCTUATION || isTibetanMark(codePoint)) {
+            emit(sink, text, begin, end, false, type);
+        }
+        return end;
+    }
+    
+    /**
+     * Check if a character is in the Tibetan block, e.g. shad or a tsheg
+     * that is not followed by a letter
+     */
+    private static boolean isTibetanMark(int codePoint) {
+        return codePoint >= 0x0F00 && codePoint <= 0x0FFF;
+    }
+    
+    /**
+     * Get the token type of a non-Tibetan character
+     */
+    private static int charType(int codePoint) {
+        if (Character.isLetter(codePoint)) {
+            if (Character.isIdeographic(codePoint)) {
+                return IDEOGRAPHIC;
             }
-            
-            if (dictionary.isCustomWord(root)) {
-                return new LookupResult("custom", suffixLength, false);
+            Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+            if (script == Character.UnicodeScript.HAN) {
+                return IDEOGRAPHIC;
+            } else if (script == Character.UnicodeScript.HIRAGANA) {
+                return HIRAGANA;
+            } else if (script == Character.UnicodeScript.KATAKANA || codePoint == 0x30FC) {
+                return KATAKANA;
+            } else if (script == Character.UnicodeScript.HANGUL) {
+                return HANGUL;
             }
+            return ALPHANUM;
         }
         
-        return null;
+        int category = Character.getType(codePoint);
+        if (category == Character.DECIMAL_DIGIT_NUMBER || category == Character.LETTER_NUMBER
+                || category == Character.OTHER_NUMBER) {
+            return NUM;
+        }
+        if (category == Character.OTHER_SYMBOL && (codePoint >= 0x1F000 || (codePoint >= 0x2600 && codePoint < 0x2800))) {
+            return EMOJI;
+        }
+        return PUNCTUATION;
     }
     
     /**
-     * Get suffix length of a string
+     * Check if a character attaches to the preceding one: a combining mark,
+     * variation selector or joiner of another script
      */
-    private int getSuffixLength(String str) {
-        List<String> suffixes = dictionary.getSuffixes();
-        
-        for (String suffix : suffixes) {
-            if (str.endsWith(suffix)) {
-                // Special handling for ས when it's a second suffix
-                if (suffix.equals("ས") && str.length() > 2) {
-                    String lastTwo = str.substring(str.length() - 2);
-                    // Check if this is a second suffix (གས, ངས, བས, མས)
-                    if (dictionary.isSecondSuffix(lastTwo) && 
-                        str.length() > 2 && 
-                        str.substring(str.length() - 3, str.length() - 2).indexOf('་') == -1) {
-                        // This is a second suffix, don't treat as grammatical suffix
-                        continue;
-                    }
-                }
-                return suffix.length();
+    private static boolean isExtend(int codePoint) {
+        if (TibetanCharacterUtils.isTibetanCharacter(codePoint)) {
+            return false;
+        }
+        int category = Character.getType(codePoint);
+        return category == Character.NON_SPACING_MARK || category == Character.COMBINING_SPACING_MARK
+            || category == Character.ENCLOSING_MARK || category == Character.FORMAT;
+    }
+    
+    /**
+     * Check if a character may join two letters or two digits of one token
+     */
+    private static boolean isMidChar(int codePoint, int lastType) {
+        return codePoint == '.' || codePoint == '\'' || codePoint == '\u2019'
+            || (codePoint == ',' && lastType == NUM);
+    }
+    
+    /**
+     * Get the end of the Tibetan run containing pos
+     */
+    private static int runEnd(char[] text, int pos, int limit) {
+        while (!isRunEnd(text, pos, limit)) {
+            pos++;
+        }
+        return pos;
+    }
+    
+    /**
+     * Get the start of the Tibetan run that reaches the end of the chunk
+     */
+    private static int tailRunStart(char[] text, int offset, int limit) {
+        int start = limit;
+        while (start > offset && !isRunEnd(text, start - 1, limit)) {
+            start--;
+        }
+        return start;
+    }
+    
+    /**
+     * Check if the syllable window starting at begin is closed within the chunk
+     */
+    private boolean hasFullWindow(char[] text, int begin, int limit) {
+        int tshegs = 0;
+        for (int pos = begin; pos < limit; pos++) {
+            if (isRunEnd(text, pos, limit) || (text[pos] == TSHEG && ++tshegs >= maxSyllables)) {
+                return true;
             }
         }
-        
-        return 0;
+        return false;
     }
     
     /**
-     * Get next N syllables from symbol array
+     * Find the longest dictionary match starting at a Tibetan letter
+     * Follows the syllable ids of the text in the trie, checking each
+     * syllable boundary and remembering the longest accepting one. If
+     * nothing matches, the result has no type and ends after the first
+     * syllable.
+     * @param maxSyllables Longest candidate, in syllables
      */
-    private SyllableInfo getNextSyllables(String[] symbols, int beginIndex, int nbSyllables) {
-        int resNbSyllables = 1;
-        StringBuilder resStr = new StringBuilder();
-        int resStrLen = 0;
-        boolean lastIsTsheg = false;
+    private void findLongestMatch(char[] text, int begin, int limit, int maxSyllables,
+                                  LookupResult match, SyllableRun run) {
+        TibetanDictionaryTrie trie = dictionary.getTrie();
         
-        while (beginIndex < symbols.length && 
-               (isTibetanText(symbols[beginIndex]) || 
-                symbols[beginIndex].equals("་") || 
-                symbols[beginIndex].equals("༌"))) {
-            
-            if (lastIsTsheg) {
-                resStrLen++;
-                resStr.append("་");
+        match.clear();
+        run.seek(begin);
+        int node = TibetanDictionaryTrie.ROOT;  // Trie node of the syllables before the current one
+        int start = begin;
+        
+        for (int i = 0; ; i++) {
+            if (i == run.size) {
+                resolveSyllable(text, start, limit, trie.getLexicon(), run);
             }
+            int end = run.ends[i];
+            int syllables = i + 1;
+            boolean runEnd = isRunEnd(text, end, limit);
             
-            if (symbols[beginIndex].equals("་") || symbols[beginIndex].equals("༌")) {
-                lastIsTsheg = true;
-                if (resNbSyllables >= nbSyllables) {
-                    break;
+            int wordNode = trie.child(node, run.ids[i]);
+            if (!runEnd && syllables < maxSyllables && isRunEnd(text, end + 1, limit)) {
+                // A tsheg ending the run counts as one more syllable, which
+                // keeps word lists out of the first probe of this candidate
+                if (!lookupAt(text, begin, end, wordNode, node, start, match, false)) {
+                    lookupAt(text, begin, end, wordNode, node, start, match, true);
                 }
-                resNbSyllables++;
             } else {
-                lastIsTsheg = false;
-                resStrLen++;
-                resStr.append(symbols[beginIndex]);
+                lookupAt(text, begin, end, wordNode, node, start, match, true);
             }
-            
-            beginIndex++;
+            if (match.end == end) {
+                match.syllables = syllables;
+            }
+            if (!trie.hasChildren(wordNode) || syllables >= maxSyllables || runEnd || isRunEnd(text, end + 1, limit)) {
+                // No longer entry starts with these syllables, or the run ends
+                break;
+            }
+            node = wordNode;
+            start = end + 1;
         }
         
-        return new SyllableInfo(resStr.toString(), resNbSyllables, resStrLen);
+        if (match.type == NO_MATCH) {
+            match.end = run.ends[0];
+        }
+    }
+    
+    /**
+     * Read the syllable starting at start, up to the next tsheg or the end
+     * of the run, and append it to the run with its id
+     */
+    private static void resolveSyllable(char[] text, int start, int limit, TibetanSyllableLexicon lexicon, SyllableRun run) {
+        int letter = TibetanSyllableLexicon.ROOT;
+        int pos = start;
+        while (!isRunEnd(text, pos, limit) && text[pos] != TSHEG) {
+            if (letter != TibetanSyllableLexicon.NO_NODE) {
+                letter = lexicon.child(letter, text[pos]);
+            }
+            pos++;
+        }
+        run.add(start, pos, lexicon.id(letter));
     }
     
     /**
-     * Check if a symbol is Tibetan text
+     * Check if a Tibetan run (letters and tsheg) ends before pos
      */
-    private boolean isTibetanText(String symbol) {
-        if (symbol == null || symbol.isEmpty()) {
+    private static boolean isRunEnd(char[] text, int pos, int limit) {
+        if (pos >= limit) {
+            return true;
+        }
+        char c = text[pos];
+        return c != TSHEG && !TibetanCharacterUtils.isTibetanCharacter(c);
+    }
+    
+    /**
+     * Check the candidate text[begin, end) against the dictionary
+     * Updates the match if it is found, directly or after removing a suffix
+     * @param wordNode Trie node of the candidate
+     * @param node Trie node of the syllables before the last one, which starts at syllableStart
+     * @param words Whether the word lists take part in the lookup
+     * @return true if the candidate matched
+     */
+    private boolean lookupAt(char[] text, int begin, int end, int wordNode, int node, int syllableStart,
+                             LookupResult match, boolean words) {
+        TibetanDictionaryTrie trie = dictionary.getTrie();
+        
+        // One trie node yields every category; priority order: particles > verbs > words > custom
+        int wordFlag = words ? TibetanDictionaryManager.WORD : 0;
+        int flags = trie.flags(wordNode);
+        if ((flags & TibetanDictionaryManager.PARTICLE) != 0) {
+            match.set(PARTICLE, end, 0, false, wordNode);
+            return true;
+        }
+        
+        if ((flags & TibetanDictionaryManager.VERB) != 0) {
+            match.set(VERB, end, 0, false, wordNode);
+            return true;
+        }
+        
+        if ((flags & wordFlag) != 0) {
+            match.set(WORD, end, 0, false, wordNode);
+            return true;
+        }
+        
+        if ((flags & TibetanDictionaryManager.CUSTOM) != 0) {
+            match.set(CUSTOM, end, 0, false, wordNode);
+            return true;
+        }
+        
+        // Try removing suffix
+        int suffixLength = dictionary.getSuffixTable().suffixLength(text, begin, end);
+        if (suffixLength <= 0 || suffixLength >= end - begin || end - suffixLength < syllableStart) {
             return false;
         }
         
-        int codePoint = symbol.codePointAt(0);
-        return TibetanCharacterUtils.isTibetanCharacter(codePoint);
+        // The root ends within the last syllable
+        int rootSyllable = trie.getLexicon().id(text, syllableStart, end - suffixLength);
+        int rootNode = trie.child(node, rootSyllable);
+        int rootFlags = trie.flags(rootNode);
+        
+        // Check ashung forms first
+        if ((rootFlags & TibetanDictionaryManager.VERB_ASHUNG) != 0) {
+            match.set(VERB, end, suffixLength, true, rootNode);
+        } else if ((rootFlags & TibetanDictionaryManager.WORD_ASHUNG) != 0) {
+            match.set(WORD, end, suffixLength, true, rootNode);
+        } else if ((rootFlags & TibetanDictionaryManager.VERB) != 0) {
+            // Check regular forms
+            match.set(VERB, end, suffixLength, false, rootNode);
+        } else if ((rootFlags & TibetanDictionaryManager.PARTICLE) != 0) {
+            match.set(PARTICLE, end, suffixLength, false, rootNode);
+        } else if ((rootFlags & wordFlag) != 0) {
+            match.set(WORD, end, suffixLength, false, rootNode);
+        } else if ((rootFlags & TibetanDictionaryManager.CUSTOM) != 0) {
+            match.set(CUSTOM, end, suffixLength, false, rootNode);
+        } else {
+            return false;
+        }
+        return true;
     }
     
     /**
-     * Inner class to hold syllable information
+     * Sink recording the tokens of one run for the segmentation cache
+     * Each token is stored as its start, its end shifted left by one with
+     * the ashung flag in the low bit, both relative to the start of the run,
+     * and its type
      */
-    private static class SyllableInfo {
-        String str;
-        int nbSyllables;
-        int strLen;
+    static final class RunRecorder extends TibetanTokenSink {
+        int[] tokens = new int[16];
+        int size;
+        int begin;
         
-        SyllableInfo(String str, int nbSyllables, int strLen) {
-            this.str = str;
-            this.nbSyllables = nbSyllables;
-            this.strLen = strLen;
+        @Override
+        public void token(char[] text, int start, int end, boolean ashung, int type) {
+            if (size + 3 > tokens.length) {
+                tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            }
+            tokens[size++] = start - begin;
+            tokens[size++] = (end - begin) << 1 | (ashung ? 1 : 0);
+            tokens[size++] = type;
+        }
+    }
+    
+    /**
+     * Sub-words of the word being emitted in search mode
+     */
+    static final class Subwords {
+        final SyllableRun run = new SyllableRun();
+        final LookupResult match = new LookupResult();
+        final int[] starts = new int[MAX_SYLLABLES_LIMIT];
+        final int[] ends = new int[MAX_SYLLABLES_LIMIT];
+        final int[] types = new int[MAX_SYLLABLES_LIMIT];
+        int size;
+    }
+    
+    /**
+     * Syllables read by the last match, each with its end and its id in the
+     * syllable lexicon (UNKNOWN if no entry has it). The next match usually
+     * starts at one of them, so each syllable of a run is resolved once.
+     */
+    static final class SyllableRun {
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int[] ids = new int[16];
+        int size;
+        
+        /**
+         * Keep the syllables from the one starting at begin, or none if no
+         * syllable read starts there
+         */
+        void seek(int begin) {
+            int first = 0;
+            while (first < size && starts[first] < begin) {
+                first++;
+            }
+            if (first == size || starts[first] != begin) {
+                size = 0;
+            } else if (first > 0) {
+                size -= first;
+                System.arraycopy(starts, first, starts, 0, size);
+                System.arraycopy(ends, first, ends, 0, size);
+                System.arraycopy(ids, first, ids, 0, size);
+            }
+        }
+        
+        void add(int start, int end, int id) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            ids[size] = id;
+            size++;
+        }
+    }
+    
+    /**
+     * Best path of a run in viterbi mode: for each syllable, the token
+     * starting there and the cost from there to the end of the run
+     */
+    static final class Lattice {
+        int[] syllables = new int[16];      // Syllables of the token, 0 for a stray tsheg
+        int[] ends = new int[16];
+        int[] types = new int[16];
+        int[] suffixLengths = new int[16];
+        boolean[] ashung = new boolean[16];
+        long[] costs = new long[17];
+        
+        void ensureCapacity(int size) {
+            if (size >= syllables.length) {
+                int capacity = Math.max(syllables.length * 2, size + 1);
+                syllables = new int[capacity];
+                ends = new int[capacity];
+                types = new int[capacity];
+                suffixLengths = new int[capacity];
+                ashung = new boolean[capacity];
+                costs = new long[capacity + 1];
+            }
+        }
+        
+        void set(int i, int syllables, int end, int type, int suffixLength, boolean ashung, long cost) {
+            this.syllables[i] = syllables;
+            this.ends[i] = end;
+            this.types[i] = type;
+            this.suffixLengths[i] = suffixLength;
+            this.ashung[i] = ashung;
+            this.costs[i] = cost;
         }
     }
     
     /**
      * Inner class to hold lookup result
      */
-    private static class LookupResult {
-        String type;
+    static class LookupResult {
+        int type = NO_MATCH;
+        int end;
         int suffixLength;
         boolean ashung;
+        int node;           // Trie node of the matched entry or root
+        int syllables;      // Syllables of the match, for the statistics
         
-        LookupResult(String type, int suffixLength, boolean ashung) {
+        void set(int type, int end, int suffixLength, boolean ashung, int node) {
             this.type = type;
+            this.end = end;
             this.suffixLength = suffixLength;
             this.ashung = ashung;
+            this.node = node;
+        }
+        
+        void clear() {
+            set(NO_MATCH, 0, 0, false, TibetanDictionaryTrie.NO_NODE);
+            syllables = 0;
         }
     }
 }
-
@@ -84,27 +84,49 @@ public class TibetanCharacterUtils {
         return count;
     }
     
+    /**
+     * Get the end of the syllable starting at start
+     * A syllable ends at a tsheg or at the first character that is not
+     * Tibetan text, as TibetanTokenizer reads syllables
+     */
+    public static int syllableEnd(char[] text, int start, int limit) {
+        int pos = start;
+        while (pos < limit && isTibetanCharacter(text[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+    
     /**
      * Normalize Tibetan text
-     * Removes extra whitespace and normalizes separators
+     * Removes extra whitespace and normalizes separators, in one pass
+     * @see TibetanNormalizer
      */
     public static String normalizeText(String text) {
         if (text == null) {
             return "";
         }
-        
-        // Trim and normalize spaces
-        text = text.trim().replaceAll("\\s+", " ");
-        
-        // Normalize Tibetan tsheg shad (༌) to tsheg (་)
-        text = text.replace('༌', '་');
-        
-        return text;
+        return TibetanNormalizer.normalize(text);
+    }
+    
+    /**
+     * Normalize Tibetan tsheg shad (༌) to tsheg (་) in place
+     * Does not change the length, so offsets into the buffer stay valid
+     */
+    public static void normalizeTsheg(char[] text, int offset, int length) {
+        for (int i = offset, limit = offset + length; i < limit; i++) {
+            if (text[i] == '༌') {
+                text[i] = '་';
+            }
+        }
     }
     
     /**
      * Convert string to symbol array (handling surrogate pairs)
+     * @deprecated allocates one String per character; TibetanTokenizer works
+     * on char[] with offsets instead
      */
+    @Deprecated
     public static String[] getSymbols(String text) {
         int length = text.length();
         String[] symbols = new String[length];
@@ -0,0 +1,275 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan.utils;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass Tibetan text normalizer
+ * In one pass over the text it:
+ * - trims whitespace and collapses whitespace runs into one space
+ * - removes zero-width spaces, joiners and byte order marks
+ * - replaces the non-breaking tsheg (༌) with the tsheg (་) and collapses repeated tshegs
+ * - composes decomposed vowel and subjoined letter sequences into their
+ *   precomposed letters, e.g. U+0F71 U+0F72 into U+0F73
+ *
+ * The output is never longer than the input, so a whole text can be
+ * normalized in place. Input may also be fed in chunks, e.g. by a CharFilter;
+ * the last character is held back until the next one shows whether it
+ * composes. Every shift between output and input is recorded, so output
+ * offsets can be mapped back to the original text.
+ */
+public class TibetanNormalizer {
+    
+    private static final char TSHEG = '་';
+    private static final char NON_BREAKING_TSHEG = '༌';
+    private static final int NONE = -1;
+    
+    // Canonical decompositions in the Tibetan block: precomposed, base, mark
+    private static final char[] COMPOSITIONS = {
+        '\u0F43', '\u0F42', '\u0FB7',    // GHA
+        '\u0F4D', '\u0F4C', '\u0FB7',    // DDHA
+        '\u0F52', '\u0F51', '\u0FB7',    // DHA
+        '\u0F57', '\u0F56', '\u0FB7',    // BHA
+        '\u0F5C', '\u0F5B', '\u0FB7',    // DZHA
+        '\u0F69', '\u0F40', '\u0FB5',    // KSSA
+        '\u0F73', '\u0F71', '\u0F72',    // Vowel sign II
+        '\u0F75', '\u0F71', '\u0F74',    // Vowel sign UU
+        '\u0F76', '\u0FB2', '\u0F80',    // Vocalic R
+        '\u0F78', '\u0FB3', '\u0F80',    // Vocalic L
+        '\u0F81', '\u0F71', '\u0F80',    // Reversed vowel sign II
+        '\u0F93', '\u0F92', '\u0FB7',    // Subjoined GHA
+        '\u0F9D', '\u0F9C', '\u0FB7',    // Subjoined DDHA
+        '\u0FA2', '\u0FA1', '\u0FB7',    // Subjoined DHA
+        '\u0FA7', '\u0FA6', '\u0FB7',    // Subjoined BHA
+        '\u0FAC', '\u0FAB', '\u0FB7',    // Subjoined DZHA
+        '\u0FB9', '\u0F90', '\u0FB5',    // Subjoined KSSA
+    };
+    
+    private int consumed;           // Input chars seen since reset
+    private int produced;           // Output chars written since reset
+    private int held = NONE;        // Last character, not written until the next one arrives
+    private int heldInput;
+    private int heldEnd;            // Input offset after the last char composed into the held one
+    private boolean pendingSpace;
+    private int pendingSpaceInput;
+    
+    // Offset map: from correctionOffsets[i] on, input offset = output offset + correctionDiffs[i]
+    private int[] correctionOffsets = new int[8];
+    private int[] correctionDiffs = new int[8];
+    private int corrections;
+    
+    /**
+     * Normalize a whole text in place
+     * @return the normalized length
+     */
+    public static int normalize(char[] text, int offset, int length) {
+        TibetanNormalizer normalizer = new TibetanNormalizer();
+        int written = normalizer.normalize(text, offset, length, text, offset);
+        return written + normalizer.finish(text, offset + written);
+    }
+    
+    /**
+     * Normalize a string
+     */
+    public static String normalize(String text) {
+        char[] buffer = text.toCharArray();
+        return new String(buffer, 0, normalize(buffer, 0, buffer.length));
+    }
+    
+    /**
+     * Normalize the next chunk of input into dest
+     * dest must have room for length + 2 chars (a held character and a
+     * pending space may be written ahead of this chunk's output). It may be
+     * the source buffer at the same offset when the whole text is given in
+     * one call after a reset.
+     * @return the number of chars written
+     */
+    public int normalize(char[] src, int srcOffset, int length, char[] dest, int destOffset) {
+        int write = destOffset;
+        for (int i = srcOffset, limit = srcOffset + length; i < limit; i++) {
+            char c = src[i];
+            int input = consumed++;
+            
+            if (c <= ' ') {
+                // Leading whitespace is dropped, runs become one pending space
+                if (held != NONE && !pendingSpace) {
+                    pendingSpace = true;
+                    pendingSpaceInput = input;
+                }
+                continue;
+            }
+            if (isIgnorable(c)) {
+                continue;
+            }
+            if (c == NON_BREAKING_TSHEG) {
+                c = TSHEG;
+            }
+            
+            if (held != NONE) {
+                if (!pendingSpace) {
+                    if (c == TSHEG && held == TSHEG) {
+                        continue;
+                    }
+                    char composed = compose((char) held, c);
+                    if (composed != 0) {
+                        held = composed;
+                        heldEnd = input + 1;
+                        continue;
+                    }
+                }
+                write = write(dest, write, (char) held, heldInput, heldEnd);
+            }
+            if (pendingSpace) {
+                write = write(dest, write, ' ', pendingSpaceInput, pendingSpaceInput + 1);
+                pendingSpace = false;
+            }
+            held = c;
+            heldInput = input;
+            heldEnd = input + 1;
+        }
+        return write - destOffset;
+    }
+    
+    /**
+     * Write the held character at the end of input; a trailing space is dropped
+     * @return the number of chars written (0 or 1)
+     */
+    public int finish(char[] dest, int destOffset) {
+        pendingSpace = false;
+        if (held == NONE) {
+            return 0;
+        }
+        write(dest, destOffset, (char) held, heldInput, heldEnd);
+        held = NONE;
+        return 1;
+    }
+    
+    /**
+     * Write one output char that stands for input[input, inputEnd)
+     */
+    private int write(char[] dest, int position, char c, int input, int inputEnd) {
+        // The char starts at its input offset; an end offset right after it
+        // covers everything composed into it
+        addCorrection(produced, input - produced);
+        dest[position] = c;
+        produced++;
+        addCorrection(produced, inputEnd - produced);
+        return position + 1;
+    }
+    
+    private void addCorrection(int offset, int diff) {
+        if (diff == (corrections == 0 ? 0 : correctionDiffs[corrections - 1])) {
+            return;
+        }
+        if (corrections == correctionOffsets.length) {
+            correctionOffsets = Arrays.copyOf(correctionOffsets, corrections * 2);
+            correctionDiffs = Arrays.copyOf(correctionDiffs, corrections * 2);
+        }
+        correctionOffsets[corrections] = offset;
+        correctionDiffs[corrections] = diff;
+        corrections++;
+    }
+    
+    /**
+     * Map an offset in the normalized output back to the input
+     */
+    public int correctOffset(int offset) {
+        int low = 0;
+        int high = corrections - 1;
+        int diff = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (correctionOffsets[mid] <= offset) {
+                diff = correctionDiffs[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return offset + diff;
+    }
+    
+    /**
+     * Forget all state, to normalize a new text
+     */
+    public void reset() {
+        consumed = 0;
+        produced = 0;
+        held = NONE;
+        pendingSpace = false;
+        corrections = 0;
+    }
+    
+    /**
+     * Check if a character is dropped: zero-width space, non-joiner, joiner, BOM
+     */
+    static boolean isIgnorable(char c) {
+        return c == '\u200B' || c == '\u200C' || c == '\u200D' || c == '\uFEFF';
+    }
+    
+    /**
+     * Get the precomposed letter for a base letter followed by a mark
+     * @return the precomposed letter, or 0 if the pair does not compose
+     */
+    static char compose(char base, char mark) {
+        if (mark != '\u0FB7' && mark != '\u0FB5' && mark != '\u0F72' && mark != '\u0F74' && mark != '\u0F80') {
+            return 0;
+        }
+        for (int i = 0; i < COMPOSITIONS.length; i += 3) {
+            if (COMPOSITIONS[i + 2] == mark && COMPOSITIONS[i + 1] == base) {
+                return COMPOSITIONS[i];
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Decompose precomposed letters, the inverse of the composition step
+     * Used to index dictionary entries in both forms
+     */
+    public static String decompose(String text) {
+        StringBuilder result = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int composition = indexOfComposition(c);
+            if (composition >= 0 && result == null) {
+                result = new StringBuilder(text.length() + 4).append(text, 0, i);
+            }
+            if (result == null) {
+                continue;
+            }
+            if (composition >= 0) {
+                result.append(COMPOSITIONS[composition + 1]).append(COMPOSITIONS[composition + 2]);
+            } else {
+                result.append(c);
+            }
+        }
+        return result == null ? text : result.toString();
+    }
+    
+    private static int indexOfComposition(char c) {
+        if (c < '\u0F43' || c > '\u0FB9') {
+            return -1;
+        }
+        for (int i = 0; i < COMPOSITIONS.length; i += 3) {
+            if (COMPOSITIONS[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,131 @@
+package org.tocharian;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.xcontent.XContentParser;
+import org.elasticsearch.xcontent.XContentParserConfiguration;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class RestTibetanSegmentActionTest {
+    
+    private TibetanDictionaryRegistry registry;
+    private RestTibetanSegmentAction action;
+    
+    @Before
+    public void setUp() {
+        registry = new TibetanDictionaryRegistry();
+        Settings settings = Settings.builder()
+            .put(RestTibetanSegmentAction.MAX_TEXTS.getKey(), 3)
+            .put(RestTibetanSegmentAction.MAX_CHARS.getKey(), 20)
+            .build();
+        action = new RestTibetanSegmentAction(settings, registry);
+    }
+    
+    @Test
+    public void testParse() throws IOException {
+        RestTibetanSegmentAction.SegmentRequest body = parse("{\"texts\": [\"བོད\", \"ཀ\"]}");
+        assertEquals(Arrays.asList("བོད", "ཀ"), body.texts);
+        assertTrue(body.splitSuffixes);
+        
+        body = parse("{\"split_suffixes\": false, \"texts\": []}");
+        assertEquals(List.of(), body.texts);
+        assertFalse(body.splitSuffixes);
+    }
+    
+    @Test
+    public void testParseRejectsUnknownFields() throws IOException {
+        assertParseFails("{\"text\": \"བོད\"}", "unknown or malformed field [text]");
+        assertParseFails("{\"texts\": \"བོད\"}", "unknown or malformed field [texts]");
+        assertParseFails("{\"split_suffixes\": \"no\"}", "unknown or malformed field [split_suffixes]");
+        assertParseFails("{\"texts\": [1]}", "[texts] must be an array of strings");
+        assertParseFails("[\"བོད\"]", "request body must be an object");
+    }
+    
+    @Test
+    public void testParseLimits() throws IOException {
+        assertEquals(3, parse("{\"texts\": [\"ཀ\", \"ཁ\", \"ག\"]}").texts.size());
+        assertParseFails("{\"texts\": [\"ཀ\", \"ཁ\", \"ག\", \"ང\"]}", "[tibetan.segment.max_texts] of 3 texts");
+        assertParseFails("{\"texts\": [\"བཀྲ་ཤིས་བདེ་ལེགས།\", \"བཀྲ་ཤིས་\"]}", "[tibetan.segment.max_chars] of 20 chars");
+    }
+    
+    @Test
+    public void testResponse() throws IOException {
+        RestChannel channel = channel();
+        // Offsets point into the text as sent, before normalization
+        action.segment(Arrays.asList("  ཀཀ་་ལ", "", "བོད"), true, Runnable::run, channel);
+        
+        RestResponse response = response(channel);
+        assertEquals(RestStatus.OK, response.status());
+        String content = response.content().utf8ToString();
+        assertTrue(content, content.startsWith("{\"took\":"));
+        assertTrue(content, content.endsWith("\"results\":["
+            + "{\"tokens\":[[\"ཀཀ\",2,4,\"unknown\"],[\"ལ\",6,7,\"particle\"]]},"
+            + "{\"tokens\":[]},"
+            + "{\"tokens\":[[\"བོད\",0,3,\"verb\"]]}]}"));
+    }
+    
+    @Test
+    public void testSharesOneDictionary() throws IOException {
+        action.segment(List.of("བོད"), true, Runnable::run, channel());
+        action.segment(List.of("བོད"), false, Runnable::run, channel());
+        assertEquals(Integer.valueOf(1), registry.getReferenceCounts().get(TibetanDictionaryRegistry.DEFAULT_KEY));
+    }
+    
+    @Test
+    public void testRejectedWithTooManyRequests() throws IOException {
+        RestChannel channel = channel();
+        action.segment(List.of("བོད"), true, command -> {
+            throw new EsRejectedExecutionException("queue is full");
+        }, channel);
+        
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, response(channel).status());
+    }
+    
+    private RestTibetanSegmentAction.SegmentRequest parse(String json) throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(XContentParserConfiguration.EMPTY, json)) {
+            return action.parse(parser);
+        }
+    }
+    
+    private void assertParseFails(String json, String message) throws IOException {
+        try {
+            parse(json);
+            fail("Accepted " + json);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+    
+    private static RestChannel channel() throws IOException {
+        RestChannel channel = mock(RestChannel.class);
+        when(channel.newBuilder()).thenAnswer(invocation -> XContentFactory.jsonBuilder());
+        when(channel.newErrorBuilder()).thenAnswer(invocation -> XContentFactory.jsonBuilder());
+        when(channel.request()).thenReturn(mock(RestRequest.class));
+        return channel;
+    }
+    
+    /**
+     * The single response sent on a channel
+     */
+    private static RestResponse response(RestChannel channel) {
+        ArgumentCaptor<RestResponse> response = ArgumentCaptor.forClass(RestResponse.class);
+        verify(channel, times(1)).sendResponse(response.capture());
+        return response.getValue();
+    }
+}
@@ -1,12 +1,22 @@
 package org.tocharian;
 
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 import org.junit.Before;
 import org.junit.Test;
+import org.tocharian.tibetan.TibetanDictionaryManager;
+import org.tocharian.tibetan.TibetanSegmentationStats;
+import org.tocharian.tibetan.TibetanTokenizer;
+import org.tocharian.tibetan.utils.TibetanNormalizer;
 
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -57,6 +67,202 @@ public class TibetanAnalyzerTest {
             stats.contains("not initialized"));
     }
     
+    @Test
+    public void testLongInputIsStreamedInChunks() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("ང་ཚོས་སློབ་གྲྭར་འགྲོ་དགོས། བཀྲ་ཤིས་བདེ་ལེགས་");
+        }
+        String text = sb.toString();
+        assertTrue(text.length() > TibetanLuceneTokenizer.DEFAULT_CHUNK_SIZE * 4);
+        
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initialize();
+        List<String> expected = new TibetanTokenizer(dictionary).tokenize(text);
+        
+        assertEquals(expected, tokenize(text));
+    }
+    
+    @Test
+    public void testOffsetsPointAtSourceText() throws Exception {
+        // Collapsed whitespace, tsheg shad and an ashung root used to shift offsets
+        String text = "བཀྲ་ཤིས་བདེ་ལེགས།   བཙའི  ང༌ཚོས་";
+        TokenStream ts = analyzer.tokenStream("test", new StringReader(text));
+        CharTermAttribute termAttr = ts.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAttr = ts.addAttribute(OffsetAttribute.class);
+        
+        try {
+            ts.reset();
+            int lastEnd = 0;
+            while (ts.incrementToken()) {
+                String source = text.substring(offsetAttr.startOffset(), offsetAttr.endOffset()).replace('༌', '་');
+                String term = termAttr.toString();
+                assertTrue("Offsets of " + term + " cover " + source,
+                    term.equals(source) || term.equals(source + "འ"));
+                assertTrue(offsetAttr.startOffset() >= lastEnd);
+                lastEnd = offsetAttr.endOffset();
+            }
+            ts.end();
+            assertEquals(text.length(), offsetAttr.endOffset());
+        } finally {
+            ts.close();
+        }
+    }
+    
+    @Test
+    public void testNormalizationKeepsSourceOffsets() throws Exception {
+        // Zero-width space, doubled tsheg and a decomposed vowel (U+0F71 U+0F72)
+        String text = "ཀུན་\u200Bམཁྱེན་་བཀྲ་ཤིས་ཨ\u0F71\u0F72";
+        TokenStream ts = analyzer.tokenStream("test", new StringReader(text));
+        CharTermAttribute termAttr = ts.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAttr = ts.addAttribute(OffsetAttribute.class);
+        List<String> terms = new ArrayList<>();
+        
+        try {
+            ts.reset();
+            while (ts.incrementToken()) {
+                String term = termAttr.toString();
+                String source = text.substring(offsetAttr.startOffset(), offsetAttr.endOffset());
+                assertEquals(term, TibetanNormalizer.normalize(source));
+                terms.add(term);
+            }
+            ts.end();
+        } finally {
+            ts.close();
+        }
+        assertEquals(new TibetanTokenizer(analyzerDictionary()).tokenize(text), terms);
+        assertTrue(terms.contains("ཨ\u0F73"));
+    }
+    
+    @Test
+    public void testTokenTypes() throws Exception {
+        TokenStream ts = analyzer.tokenStream("test", new StringReader("COVID-19 ནད་ཀྱི 中文 3.5"));
+        CharTermAttribute termAttr = ts.addAttribute(CharTermAttribute.class);
+        TypeAttribute typeAttr = ts.addAttribute(TypeAttribute.class);
+        List<String> tokens = new ArrayList<>();
+        
+        try {
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(termAttr + "/" + typeAttr.type());
+            }
+            ts.end();
+        } finally {
+            ts.close();
+        }
+        assertEquals(Arrays.asList("COVID/<ALPHANUM>", "19/<NUM>", "ནད/word", "ཀྱི/particle",
+            "中/<IDEOGRAPHIC>", "文/<IDEOGRAPHIC>", "3.5/<NUM>"), tokens);
+    }
+    
+    @Test
+    public void testSearchModeGraph() throws Exception {
+        TibetanTokenizer search = new TibetanTokenizer(analyzerDictionary(), true, null, 0, TibetanTokenizer.Mode.GREEDY, true);
+        TibetanLuceneTokenizer ts = new TibetanLuceneTokenizer(search);
+        ts.setReader(new StringReader("བཀྲ་ཤིས་བདེ་ལེགས་ཡིན།"));
+        CharTermAttribute termAttr = ts.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAttr = ts.addAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute posIncrAttr = ts.addAttribute(PositionIncrementAttribute.class);
+        PositionLengthAttribute posLenAttr = ts.addAttribute(PositionLengthAttribute.class);
+        List<String> tokens = new ArrayList<>();
+        
+        try {
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(termAttr + "/" + offsetAttr.startOffset() + "/" + posIncrAttr.getPositionIncrement()
+                    + "/" + posLenAttr.getPositionLength());
+            }
+            ts.end();
+        } finally {
+            ts.close();
+        }
+        assertEquals(Arrays.asList("བཀྲ་ཤིས་བདེ་ལེགས/0/1/2", "བཀྲ་ཤིས/0/0/1", "བདེ་ལེགས/8/1/1", "ཡིན/17/1/1", "།/20/1/1"), tokens);
+    }
+    
+    @Test
+    public void testSyllableShingles() throws Exception {
+        String text = "བཀྲ་ཤིས་བདེ། ཡིན abc";
+        
+        assertEquals(Arrays.asList("བཀྲ་ཤིས/0/1/1/shingle", "ཤིས་བདེ/4/1/1/shingle", "ཡིན/13/1/1/syllable", "abc/17/1/1/word"),
+            graph(new TibetanSyllableShingleFilter(whitespace(text), 2, 2, false)));
+        
+        // With unigrams, each bigram spans the positions of its two syllables
+        assertEquals(Arrays.asList("བཀྲ/0/1/1/syllable", "བཀྲ་ཤིས/0/0/2/shingle", "ཤིས/4/1/1/syllable", "ཤིས་བདེ/4/0/2/shingle",
+                "བདེ/8/1/1/syllable", "ཡིན/13/1/1/syllable", "abc/17/1/1/word"),
+            graph(new TibetanSyllableShingleFilter(whitespace(text), 2, 2, true)));
+    }
+    
+    @Test
+    public void testEdgeSyllables() throws Exception {
+        TibetanLuceneTokenizer ts = new TibetanLuceneTokenizer(new TibetanTokenizer(analyzerDictionary()));
+        ts.setReader(new StringReader("བཀྲ་ཤིས་བདེ་ལེགས་ཡིན།"));
+        
+        assertEquals(Arrays.asList("བཀྲ/0/1/1/word", "བཀྲ་ཤིས/0/0/1/word", "བཀྲ་ཤིས་བདེ/0/0/1/word", "བཀྲ་ཤིས་བདེ་ལེགས/0/0/1/word",
+                "ཡིན/17/1/1/verb", "།/20/1/1/<PUNCT>"),
+            graph(new TibetanEdgeSyllablesFilter(ts, 1, 4, false)));
+        
+        // Words shorter than min_gram are dropped, leaving their position
+        assertEquals(Arrays.asList("བཀྲ་ཤིས/0/1/1/word", "abc/12/2/1/word"),
+            graph(new TibetanEdgeSyllablesFilter(whitespace("བཀྲ་ཤིས ཡིན abc"), 2, 3, false)));
+        assertEquals(Arrays.asList("བཀྲ་ཤིས/0/1/1/word", "བཀྲ་ཤིས་བདེ/0/0/1/word", "བཀྲ་ཤིས་བདེ་ལེགས/0/0/1/word", "ཡིན/17/1/1/word"),
+            graph(new TibetanEdgeSyllablesFilter(whitespace("བཀྲ་ཤིས་བདེ་ལེགས ཡིན"), 2, 3, true)));
+    }
+    
+    @Test
+    public void testStatsCountOneDocumentPerStream() throws Exception {
+        TibetanDictionaryManager dictionary = analyzerDictionary();
+        TibetanSegmentationStats stats = dictionary.getSegmentationStats();
+        TibetanTokenizer tokenizer = new TibetanTokenizer(dictionary);
+        
+        // tibetan_segment tokenizes each input token in its own call
+        graph(new TibetanTokenFilter(whitespace("བོད་ཀྱི་ཡིག ཀཀ་ལ abc བཀྲ་ཤིས"), tokenizer));
+        assertEquals(1, stats.getDocumentCount());
+        assertEquals(4L, stats.getStatistics().get("calls"));
+        
+        // A run longer than the buffer is cut with a second call ending the chunk
+        long chars = stats.getCharCount();
+        TibetanLuceneTokenizer ts = new TibetanLuceneTokenizer(tokenizer, 8);
+        ts.setReader(new StringReader("བཀྲ་ཤིས་བདེ་ལེགས་བཀྲ་ཤིས་བདེ་ལེགས"));
+        graph(ts);
+        assertEquals(2, stats.getDocumentCount());
+        assertEquals(33, stats.getCharCount() - chars);
+    }
+    
+    private static TokenStream whitespace(String text) {
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader(text));
+        return tokenizer;
+    }
+    
+    /**
+     * Read a token stream as term/start offset/position increment/position length/type
+     */
+    private static List<String> graph(TokenStream ts) throws Exception {
+        CharTermAttribute termAttr = ts.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAttr = ts.addAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute posIncrAttr = ts.addAttribute(PositionIncrementAttribute.class);
+        PositionLengthAttribute posLenAttr = ts.addAttribute(PositionLengthAttribute.class);
+        TypeAttribute typeAttr = ts.addAttribute(TypeAttribute.class);
+        List<String> tokens = new ArrayList<>();
+        
+        try {
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(termAttr + "/" + offsetAttr.startOffset() + "/" + posIncrAttr.getPositionIncrement()
+                    + "/" + posLenAttr.getPositionLength() + "/" + typeAttr.type());
+            }
+            ts.end();
+        } finally {
+            ts.close();
+        }
+        return tokens;
+    }
+    
+    private static TibetanDictionaryManager analyzerDictionary() throws Exception {
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initialize();
+        return dictionary;
+    }
+    
     private List<String> tokenize(String text) throws Exception {
         List<String> result = new ArrayList<>();
         TokenStream ts = analyzer.tokenStream("test", new StringReader(text));
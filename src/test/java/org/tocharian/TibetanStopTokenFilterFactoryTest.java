@@ -0,0 +1,82 @@
+package org.tocharian;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Before;
+import org.junit.Test;
+import org.tocharian.tibetan.TibetanDictionaryRegistry;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TibetanStopTokenFilterFactoryTest {
+    
+    private TibetanDictionaryRegistry registry;
+    
+    @Before
+    public void setUp() {
+        registry = new TibetanDictionaryRegistry();
+    }
+    
+    @Test
+    public void testStopKeepsPositionGaps() throws Exception {
+        assertEquals(Arrays.asList("ནད/1", "རྒྱུ/2"), filter(Settings.EMPTY, "ནད ཀྱི རྒྱུ"));
+    }
+    
+    @Test
+    public void testCommonGrams() throws Exception {
+        Settings settings = Settings.builder().put("common_grams", true).build();
+        assertEquals(Arrays.asList("ནད/1", "ནད_ཀྱི/0", "ཀྱི/1", "ཀྱི_རྒྱུ/0", "རྒྱུ/1"), filter(settings, "ནད ཀྱི རྒྱུ"));
+        
+        settings = Settings.builder().put("common_grams", true).put("query_mode", true).build();
+        assertEquals(Arrays.asList("ནད_ཀྱི/1", "ཀྱི_རྒྱུ/1"), filter(settings, "ནད ཀྱི རྒྱུ"));
+    }
+    
+    @Test
+    public void testQueryModeRequiresCommonGrams() throws Exception {
+        try {
+            new TibetanStopTokenFilterFactory(null, null, "test", Settings.builder().put("query_mode", true).build(), registry);
+            fail("query_mode was accepted without common_grams");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("[query_mode] requires [common_grams]"));
+        }
+    }
+    
+    @Test
+    public void testFactoryHoldsDictionary() throws Exception {
+        TibetanStopTokenFilterFactory factory = new TibetanStopTokenFilterFactory(null, null, "test", Settings.EMPTY, registry);
+        assertNotNull(factory);
+        assertEquals(Integer.valueOf(1), registry.getReferenceCounts().get(TibetanDictionaryRegistry.DEFAULT_KEY));
+    }
+    
+    /**
+     * Run the filter over whitespace-separated tokens, as term/position increment
+     */
+    private List<String> filter(Settings settings, String text) throws Exception {
+        TibetanStopTokenFilterFactory factory = new TibetanStopTokenFilterFactory(null, null, "test", settings, registry);
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader(text));
+        TokenStream ts = factory.create(tokenizer);
+        CharTermAttribute termAttr = ts.addAttribute(CharTermAttribute.class);
+        PositionIncrementAttribute posIncrAttr = ts.addAttribute(PositionIncrementAttribute.class);
+        List<String> tokens = new ArrayList<>();
+        
+        try {
+            ts.reset();
+            while (ts.incrementToken()) {
+                tokens.add(termAttr + "/" + posIncrAttr.getPositionIncrement());
+            }
+            ts.end();
+        } finally {
+            ts.close();
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanCorpusSegmenter
+ */
+public class TibetanCorpusSegmenterTest {
+    
+    private TibetanTokenizer tokenizer;
+    
+    @Before
+    public void setUp() throws IOException {
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initialize();
+        tokenizer = new TibetanTokenizer(dictionary);
+    }
+    
+    @Test
+    public void testTextLine() {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, false, false, null);
+        
+        assertEquals("{\"tokens\":[\"བཀྲ་ཤིས་བདེ་ལེགས\",\"།\"]}", segmenter.segmentLine("བཀྲ་ཤིས་བདེ་ལེགས།"));
+        assertEquals("{\"tokens\":[\"བཙའ\",\"འི\"]}", segmenter.segmentLine("བཙའི"));
+        assertEquals("{\"tokens\":[]}", segmenter.segmentLine(""));
+    }
+    
+    @Test
+    public void testNdjsonFields() {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, true, false, Arrays.asList("text"));
+        
+        // Bulk action lines and lines without the field are copied
+        assertEquals("{\"index\": {\"_id\": \"1\"}}", segmenter.segmentLine("{\"index\": {\"_id\": \"1\"}}"));
+        assertEquals("{\"id\": 1}", segmenter.segmentLine("{\"id\": 1}"));
+        assertEquals("{\"id\": [1, {\"text\": \"x\"}], \"text\": \"ཡིག \\\"\\u0F40\\\"\",\"text_tokens\":[\"ཡིག\",\"ཀ\"]}",
+            segmenter.segmentLine("{\"id\": [1, {\"text\": \"x\"}], \"text\": \"ཡིག \\\"\\u0F40\\\"\" }"));
+    }
+    
+    @Test
+    public void testMalformedLine() {
+        try {
+            new TibetanCorpusSegmenter(tokenizer, true, false, null).segmentLine("{\"text\": \"ཡིག");
+            fail("Malformed line was accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("ཡིག"));
+        }
+    }
+    
+    @Test
+    public void testTrailingContentIsMalformed() {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, true, false, null);
+        assertEquals("{\"id\": 1} ", segmenter.segmentLine("{\"id\": 1} "));
+        for (String line : Arrays.asList("{\"text\":\"ཀ\"} x", "{\"id\": 1}{\"id\": 2}")) {
+            try {
+                segmenter.segmentLine(line);
+                fail("Trailing content was accepted: " + line);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed JSON at column "));
+            }
+        }
+    }
+    
+    @Test
+    public void testExistingTokensAreReplaced() {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, true, false, Arrays.asList("text"));
+        assertEquals("{\"id\": 1,\"title\": \"x\",\"text\": \"ཀ\",\"text_tokens\":[\"ཀ\"]}",
+            segmenter.segmentLine("{\"id\": 1, \"text_tokens\": [\"old\"], \"title\": \"x\", \"text\": \"ཀ\"}"));
+        assertEquals("{\"text\":\"ཀ\",\"text_tokens\":[\"ཀ\"]}",
+            segmenter.segmentLine("{\"text_tokens\":[],\"text\":\"ཀ\"}"));
+    }
+    
+    @Test
+    public void testBlankNdjsonLines() throws IOException {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, true, false, null);
+        assertEquals("", segmenter.segmentLine(""));
+        assertEquals("  ", segmenter.segmentLine("  "));
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, segmenter.segment(ndjson("{\"text\":\"བོད\"}\n\n{\"text\":\"ཀ\"}\n"), out, 2));
+        assertEquals("{\"text\":\"བོད\",\"text_tokens\":[\"བོད\"]}\n\n{\"text\":\"ཀ\",\"text_tokens\":[\"ཀ\"]}\n",
+            out.toString(StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void testMalformedLineNumber() throws IOException {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, true, false, null);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            input.append(i == 27 ? "{\"text\" \"ཀ\"}" : "{\"text\":\"བོད\"}").append('\n');
+        }
+        try {
+            segmenter.segment(ndjson(input.toString()), new ByteArrayOutputStream(), 3);
+            fail("Malformed line was accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 28: Malformed JSON at column 9: "));
+        }
+    }
+    
+    @Test
+    public void testSkipMalformed() throws IOException {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, true, false, null, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, segmenter.segment(ndjson("{\"text\":\"བོད\"}\n{\"text\": \"ཡིག\n{\"text\":\"ཀ\"}\n"), out, 2));
+        assertEquals("{\"text\":\"བོད\",\"text_tokens\":[\"བོད\"]}\n{\"text\": \"ཡིག\n{\"text\":\"ཀ\",\"text_tokens\":[\"ཀ\"]}\n",
+            out.toString(StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void testAnalyzeOffsets() {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, false, true, null);
+        
+        // Offsets point into the text before normalization
+        assertEquals("{\"tokens\":["
+                + "{\"token\":\"ཀཀ\",\"start_offset\":2,\"end_offset\":4,\"type\":\"unknown\",\"position\":0},"
+                + "{\"token\":\"ལ\",\"start_offset\":6,\"end_offset\":7,\"type\":\"particle\",\"position\":1}]}",
+            segmenter.segmentLine("  ཀཀ་་ལ"));
+    }
+    
+    @Test
+    public void testBatchesKeepLineOrder() throws IOException {
+        TibetanCorpusSegmenter segmenter = new TibetanCorpusSegmenter(tokenizer, false, false, null);
+        String[] lines = {"ང་ཚོས་སློབ་གྲྭར་འགྲོ་དགོས།", "", "བཀྲ་ཤིས་བདེ་ལེགས།", "abc ཀཀ་ལ", "བོད་ཀྱི་ཡིག་གི་ལ"};
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String line = lines[i % lines.length];
+            input.append(line).append(i % 7 == 0 ? "\r\n" : "\n");
+            expected.append(segmenter.segmentLine(line)).append('\n');
+        }
+        byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+        
+        Path file = Files.createTempFile("corpus", ".txt");
+        try (FileChannel channel = FileChannel.open(file.toAbsolutePath())) {
+            Files.write(file, bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(200, segmenter.segment(new TibetanCorpusSegmenter.BatchReader(channel, 64), out, 3));
+            assertEquals(expected.toString(), out.toString(StandardCharsets.UTF_8));
+        } finally {
+            Files.delete(file);
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(200, segmenter.segment(new TibetanCorpusSegmenter.BatchReader(
+            Channels.newChannel(new ByteArrayInputStream(bytes)), 64), out, 3));
+        assertEquals(expected.toString(), out.toString(StandardCharsets.UTF_8));
+    }
+    
+    private static TibetanCorpusSegmenter.BatchReader ndjson(String input) {
+        return new TibetanCorpusSegmenter.BatchReader(
+            Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))), 32);
+    }
+}
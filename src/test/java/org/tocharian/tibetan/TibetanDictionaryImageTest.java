@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanDictionaryImage
+ */
+public class TibetanDictionaryImageTest {
+    
+    private static byte[] compileImage() throws IOException {
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initializeFromText();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        dictionary.toImage().writeTo(out);
+        return out.toByteArray();
+    }
+    
+    @Test
+    public void testImageRoundTrip() throws IOException {
+        TibetanDictionaryManager text = new TibetanDictionaryManager();
+        text.initializeFromText();
+        TibetanDictionaryImage image = TibetanDictionaryImage.read(compileImage());
+        
+        Map<String, Integer> expected = new TreeMap<>();
+        text.getTrie().forEachEntry(expected::put);
+        Map<String, Integer> actual = new TreeMap<>();
+        image.trie.forEachEntry(actual::put);
+        
+        assertEquals(expected, actual);
+        assertEquals(text.getTrie().nodeCount(), image.trie.nodeCount());
+        assertEquals(text.getSuffixes(), image.suffixes);
+        assertEquals(text.getSecondSuffixes(), new HashSet<>(image.secondSuffixes));
+    }
+    
+    @Test
+    public void testImageMatchesTextDictionaries() throws IOException {
+        TibetanDictionaryManager text = new TibetanDictionaryManager();
+        text.initializeFromText();
+        TibetanDictionaryManager bundled = new TibetanDictionaryManager();
+        bundled.initialize();
+        
+        assertEquals(text.getStatistics(), bundled.getStatistics());
+    }
+    
+    @Test
+    public void testCorruptImageIsRejected() throws IOException {
+        byte[] image = compileImage();
+        image[image.length / 2] ^= 1;
+        
+        try {
+            TibetanDictionaryImage.read(image);
+            fail("Corrupt image was accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+    }
+}
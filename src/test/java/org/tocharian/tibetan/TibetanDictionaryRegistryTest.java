@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanDictionaryRegistry
+ */
+public class TibetanDictionaryRegistryTest {
+
+    private TibetanDictionaryRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new TibetanDictionaryRegistry();
+    }
+
+    @Test
+    public void testSameKeySharesOneInstance() throws IOException {
+        TibetanDictionaryRegistry.Handle first = registry.acquireDefault();
+        TibetanDictionaryRegistry.Handle second = registry.acquireDefault();
+
+        assertSame(first.get(), second.get());
+        assertTrue(first.get().isInitialized());
+        assertEquals(1, registry.size());
+        assertEquals(Integer.valueOf(2), registry.getReferenceCounts().get(TibetanDictionaryRegistry.DEFAULT_KEY));
+        assertSame(first.get(), registry.getDictionaries().get(TibetanDictionaryRegistry.DEFAULT_KEY));
+    }
+
+    @Test
+    public void testLoaderCalledOncePerKey() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        TibetanDictionaryRegistry.Loader loader = () -> {
+            loads.incrementAndGet();
+            TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+            dictionary.initialize();
+            return dictionary;
+        };
+
+        registry.acquire("a", loader);
+        registry.acquire("a", loader);
+        registry.acquire("b", loader);
+
+        assertEquals(2, loads.get());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() throws IOException {
+        try {
+            registry.acquire("a", () -> {
+                throw new IOException("unreadable");
+            });
+            fail("Failed load returned a handle");
+        } catch (IOException e) {
+            assertEquals("unreadable", e.getMessage());
+        }
+        assertEquals(0, registry.size());
+
+        TibetanDictionaryRegistry.Handle handle = registry.acquire("a", () -> {
+            TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+            dictionary.initialize();
+            return dictionary;
+        });
+        assertTrue(handle.get().isInitialized());
+        assertEquals(Integer.valueOf(1), registry.getReferenceCounts().get("a"));
+    }
+
+    @Test
+    public void testLoadDoesNotBlockOtherKeys() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TibetanDictionaryManager dictionary = new TibetanDictionaryManager();
+        dictionary.initialize();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<TibetanDictionaryRegistry.Handle> slow = executor.submit(() -> registry.acquire("slow", () -> {
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return dictionary;
+            }));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            Future<TibetanDictionaryRegistry.Handle> waiting = executor.submit(() -> registry.acquire("slow", () -> {
+                throw new AssertionError("Loaded twice");
+            }));
+
+            // Other keys and the stats calls go on while the slow key loads
+            registry.acquire("fast", () -> dictionary).close();
+            assertFalse(registry.getDictionaries().containsKey("slow"));
+            assertFalse(registry.getReferenceCounts().containsKey("slow"));
+
+            release.countDown();
+            assertSame(dictionary, slow.get(10, TimeUnit.SECONDS).get());
+            assertSame(dictionary, waiting.get(10, TimeUnit.SECONDS).get());
+            assertEquals(Integer.valueOf(2), registry.getReferenceCounts().get("slow"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReleaseDropsUnusedDictionary() throws IOException {
+        TibetanDictionaryRegistry.Handle first = registry.acquireDefault();
+        TibetanDictionaryRegistry.Handle second = registry.acquireDefault();
+
+        first.close();
+        // Closing twice must not release another holder's reference
+        first.close();
+        assertEquals(Integer.valueOf(1), registry.getReferenceCounts().get(TibetanDictionaryRegistry.DEFAULT_KEY));
+
+        second.close();
+        assertEquals(0, registry.size());
+        assertTrue(registry.getReferenceCounts().isEmpty());
+    }
+
+    @Test
+    public void testCloseAllReleasesLifecycle() throws IOException {
+        Object index = new Object();
+        Object otherIndex = new Object();
+        Object owner = new Object();
+        TibetanDictionaryRegistry.Handle first = registry.acquireDefault().closeWith(index, owner);
+        registry.acquireDefault().closeWith(index, owner);
+        registry.acquireDefault().closeWith(otherIndex, owner);
+
+        registry.closeAll(index);
+        assertEquals(Integer.valueOf(1), registry.getReferenceCounts().get(TibetanDictionaryRegistry.DEFAULT_KEY));
+        // Handles already released by closeAll are not released again
+        first.close();
+        registry.closeAll(index);
+        assertEquals(Integer.valueOf(1), registry.getReferenceCounts().get(TibetanDictionaryRegistry.DEFAULT_KEY));
+
+        registry.closeAll(otherIndex);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testClosedHandleLeavesLifecycle() throws IOException {
+        Object index = new Object();
+        TibetanDictionaryRegistry.Handle handle = registry.acquireDefault().closeWith(index, new Object());
+        TibetanDictionaryRegistry.Handle other = registry.acquireDefault();
+
+        handle.close();
+        registry.closeAll(index);
+        assertEquals(Integer.valueOf(1), registry.getReferenceCounts().get(TibetanDictionaryRegistry.DEFAULT_KEY));
+        other.close();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testSegmentationCachesFollowHandles() throws IOException {
+        TibetanSegmentationCache cache = new TibetanSegmentationCache(10, 1000);
+        TibetanDictionaryRegistry.Handle handle = registry.acquireDefault().withCache("index/tibetan", cache);
+        TibetanDictionaryRegistry.Handle other = registry.acquireDefault();
+
+        assertEquals(Collections.singletonMap("index/tibetan", cache),
+            registry.getSegmentationCaches(TibetanDictionaryRegistry.DEFAULT_KEY));
+        handle.close();
+        assertTrue(registry.getSegmentationCaches(TibetanDictionaryRegistry.DEFAULT_KEY).isEmpty());
+
+        // A released handle does not report a cache attached afterwards
+        handle.withCache("index/tibetan", cache);
+        assertTrue(registry.getSegmentationCaches(TibetanDictionaryRegistry.DEFAULT_KEY).isEmpty());
+        other.close();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanDictionaryTrie
+ */
+public class TibetanDictionaryTrieTest {
+
+    @Test
+    public void testFlagsAreMergedPerEntry() {
+        TibetanDictionaryTrie.Builder builder = new TibetanDictionaryTrie.Builder();
+        assertTrue(builder.add("ལ", TibetanDictionaryManager.PARTICLE));
+        assertTrue(builder.add("ལ", TibetanDictionaryManager.WORD));
+        assertFalse(builder.add("ལ", TibetanDictionaryManager.WORD));
+        builder.add("བཀྲ་ཤིས", TibetanDictionaryManager.WORD);
+        TibetanDictionaryTrie trie = builder.build();
+
+        assertEquals(2, trie.size());
+        assertEquals(TibetanDictionaryManager.PARTICLE | TibetanDictionaryManager.WORD, trie.lookup("ལ"));
+        assertEquals(TibetanDictionaryManager.WORD, trie.lookup("བཀྲ་ཤིས"));
+    }
+
+    @Test
+    public void testPrefixesAreNotEntries() {
+        TibetanDictionaryTrie.Builder builder = new TibetanDictionaryTrie.Builder();
+        builder.add("བཀྲ་ཤིས", TibetanDictionaryManager.WORD);
+        TibetanDictionaryTrie trie = builder.build();
+
+        assertEquals(0, trie.lookup("བཀྲ"));
+        assertEquals(0, trie.lookup("བཀྲ་ཤིས་བདེ"));
+        assertEquals(0, trie.lookup(""));
+        assertNotEquals(TibetanDictionaryTrie.NO_NODE, trie.walk(TibetanDictionaryTrie.ROOT, "བཀྲ", 0, 3));
+        assertEquals(TibetanDictionaryTrie.NO_NODE, trie.walk(TibetanDictionaryTrie.ROOT, "བཀྲ་", 0, 4));
+    }
+
+    @Test
+    public void testEdgesAreSyllables() {
+        TibetanDictionaryTrie.Builder builder = new TibetanDictionaryTrie.Builder();
+        builder.add("བཀྲ་ཤིས", TibetanDictionaryManager.WORD);
+        builder.add("བདེ་ལེགས", TibetanDictionaryManager.WORD);
+        builder.add("ཤིས", TibetanDictionaryManager.VERB);
+        TibetanDictionaryTrie trie = builder.build();
+        TibetanSyllableLexicon lexicon = trie.getLexicon();
+
+        // ཤིས is interned once for both entries
+        assertEquals(4, lexicon.size());
+        int node = trie.child(TibetanDictionaryTrie.ROOT, lexicon.id("བཀྲ", 0, 3));
+        assertEquals(TibetanDictionaryManager.WORD, trie.flags(trie.child(node, lexicon.id("ཤིས", 0, 3))));
+        assertEquals(TibetanDictionaryTrie.NO_NODE, trie.child(node, lexicon.id("ལེགས", 0, 4)));
+        assertEquals(TibetanDictionaryTrie.NO_NODE, trie.child(node, TibetanSyllableLexicon.UNKNOWN));
+        assertTrue(trie.hasChildren(node));
+        assertFalse(trie.hasChildren(trie.walk(TibetanDictionaryTrie.ROOT, "བདེ་ལེགས", 0, 8)));
+
+        Map<String, Integer> entries = new TreeMap<>();
+        trie.forEachEntry(entries::put);
+        assertEquals(3, entries.size());
+        assertEquals(Integer.valueOf(TibetanDictionaryManager.VERB), entries.get("ཤིས"));
+        assertEquals(Integer.valueOf(TibetanDictionaryManager.WORD), entries.get("བདེ་ལེགས"));
+    }
+
+    @Test
+    public void testMaxSyllables() {
+        TibetanDictionaryTrie.Builder builder = new TibetanDictionaryTrie.Builder();
+        builder.add("བཀྲ་ཤིས་བདེ་ལེགས", TibetanDictionaryManager.WORD);
+        builder.add("བཀྲ་ཤིས", TibetanDictionaryManager.WORD);
+        builder.add("ལ", TibetanDictionaryManager.PARTICLE);
+
+        assertEquals(4, builder.build().maxSyllables());
+    }
+
+    @Test
+    public void testEmptyTrie() {
+        TibetanDictionaryTrie trie = new TibetanDictionaryTrie.Builder().build();
+
+        assertEquals(0, trie.size());
+        assertEquals(0, trie.maxSyllables());
+        assertEquals(1, trie.nodeCount());
+        assertEquals(TibetanDictionaryTrie.NO_NODE, trie.child(TibetanDictionaryTrie.ROOT, 0));
+        assertEquals(0, trie.getLexicon().size());
+    }
+
+    @Test
+    public void testCountsGiveCosts() throws IOException {
+        TibetanDictionaryTrie.Builder builder = new TibetanDictionaryTrie.Builder();
+        builder.add("བཀྲ་ཤིས", TibetanDictionaryManager.WORD);
+        builder.add("བདེ་ལེགས", TibetanDictionaryManager.WORD);
+        builder.add("ལ", TibetanDictionaryManager.PARTICLE);
+        builder.setCount("བཀྲ་ཤིས", 98);
+        builder.setCount("མེད", 5);
+        TibetanDictionaryTrie trie = builder.build();
+
+        // 100 counts in all: 98 and one for each entry without a count;
+        // the count of an entry that is not added is dropped
+        int frequent = trie.walk(TibetanDictionaryTrie.ROOT, "བཀྲ་ཤིས", 0, 7);
+        int rare = trie.walk(TibetanDictionaryTrie.ROOT, "ལ", 0, 1);
+        assertEquals(98, trie.count(frequent));
+        assertEquals(0, trie.count(rare));
+        assertEquals(1, trie.countedEntries());
+        assertEquals(Math.round(Math.log(100 / 98.0) * TibetanDictionaryTrie.COST_SCALE), trie.cost(frequent));
+        assertEquals(Math.round(Math.log(100) * TibetanDictionaryTrie.COST_SCALE), trie.cost(rare));
+        assertTrue(trie.unknownCost() > trie.cost(rare));
+
+        // Counts survive serialization and extension
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trie.writeTo(new DataOutputStream(bytes));
+        TibetanDictionaryTrie read = TibetanDictionaryTrie.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+        assertEquals(trie.cost(frequent), read.cost(read.walk(TibetanDictionaryTrie.ROOT, "བཀྲ་ཤིས", 0, 7)));
+        TibetanDictionaryTrie.Builder extended = new TibetanDictionaryTrie.Builder();
+        extended.addAll(read);
+        assertEquals(98, extended.build().count(frequent));
+    }
+
+    @Test
+    public void testUniformCostsWithoutCounts() {
+        TibetanDictionaryTrie.Builder builder = new TibetanDictionaryTrie.Builder();
+        builder.add("བཀྲ་ཤིས", TibetanDictionaryManager.WORD);
+        builder.add("ལ", TibetanDictionaryManager.PARTICLE);
+        TibetanDictionaryTrie trie = builder.build();
+
+        assertEquals(0, trie.countedEntries());
+        assertEquals(trie.cost(trie.walk(TibetanDictionaryTrie.ROOT, "ལ", 0, 1)),
+            trie.cost(trie.walk(TibetanDictionaryTrie.ROOT, "བཀྲ་ཤིས", 0, 7)));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.tocharian.tibetan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanSegmentationCache
+ */
+public class TibetanSegmentationCacheTest {
+
+    private TibetanDictionaryManager dictionary;
+
+    @Before
+    public void setUp() throws IOException {
+        dictionary = new TibetanDictionaryManager();
+        dictionary.initialize();
+    }
+
+    @Test
+    public void testCachedTokensMatchSegmentation() {
+        TibetanTokenizer tokenizer = new TibetanTokenizer(dictionary);
+        TibetanSegmentationCache cache = new TibetanSegmentationCache(100, 10000);
+        TibetanTokenizer cached = new TibetanTokenizer(dictionary, true, cache);
+        List<String> texts = Arrays.asList("བཀྲ་ཤིས་བདེ་ལེགས།", "བཙའི", "དམར་", "ང་ཚོས་སློབ་གྲྭར་འགྲོ་དགོས། abc", "་་ཀ་་ཁ");
+
+        for (int round = 0; round < 2; round++) {
+            for (String text : texts) {
+                assertEquals(text, tokenizer.tokenize(text), cached.tokenize(text));
+            }
+        }
+        assertEquals(5, cache.getMissCount());
+        assertEquals(5, cache.getHitCount());
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void testRunsAreCachedAcrossTexts() {
+        TibetanSegmentationCache cache = new TibetanSegmentationCache(100, 10000);
+        TibetanTokenizer cached = new TibetanTokenizer(dictionary, true, cache);
+
+        cached.tokenize("བཀྲ་ཤིས་བདེ་ལེགས།");
+        assertEquals(Arrays.asList("ཁ", "བཀྲ་ཤིས་བདེ་ལེགས", "།"), cached.tokenize("ཁ བཀྲ་ཤིས་བདེ་ལེགས།"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        TibetanSegmentationCache cache = new TibetanSegmentationCache(2, 10000);
+        TibetanTokenizer cached = new TibetanTokenizer(dictionary, true, cache);
+
+        cached.tokenize("ཀ");
+        cached.tokenize("ཁ");
+        cached.tokenize("ཀ");
+        cached.tokenize("ག");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        // ཁ was the least recently used run
+        cached.tokenize("ཀ");
+        cached.tokenize("ཁ");
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testWeightBound() {
+        TibetanSegmentationCache cache = new TibetanSegmentationCache(100, 10);
+        TibetanTokenizer cached = new TibetanTokenizer(dictionary, true, cache);
+
+        // Heavier than the whole cache: segmented but not kept
+        assertEquals(Arrays.asList("བཀྲ་ཤིས་བདེ་ལེགས"), cached.tokenize("བཀྲ་ཤིས་བདེ་ལེགས"));
+        assertEquals(0, cache.size());
+
+        cached.tokenize("ཀ");
+        cached.tokenize("ཁ");
+        assertTrue(cache.weight() <= 10);
+        assertEquals(Long.valueOf(2), cache.getStatistics().get("entries"));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanSuffixTable
+ */
+public class TibetanSuffixTableTest {
+    
+    private final TibetanSuffixTable table = new TibetanSuffixTable(
+        Arrays.asList("འི", "འོ", "འང", "འམ", "ར", "ས"), Arrays.asList("གས", "ངས", "བས", "མས"));
+    
+    private int suffixLength(String candidate) {
+        char[] text = ("xx" + candidate).toCharArray();
+        return table.suffixLength(text, 2, text.length);
+    }
+    
+    @Test
+    public void testSuffixes() {
+        assertEquals(2, suffixLength("བཙའི"));
+        assertEquals(2, suffixLength("ཀའམ"));
+        assertEquals(1, suffixLength("དམར"));
+        assertEquals(1, suffixLength("ཀས"));
+        assertEquals(0, suffixLength("བོད"));
+        assertEquals(0, suffixLength("ི"));
+    }
+    
+    @Test
+    public void testSecondSuffix() {
+        // ས closing a second suffix inside a syllable is not a grammatical suffix
+        assertEquals(0, suffixLength("ལགས"));
+        assertEquals(0, suffixLength("ཀ་ཁམས"));
+        // but it is when the second suffix starts the syllable or the candidate
+        assertEquals(1, suffixLength("ཀ་གས"));
+        assertEquals(1, suffixLength("བས"));
+    }
+    
+    @Test
+    public void testListOrderWins() {
+        TibetanSuffixTable ordered = new TibetanSuffixTable(Arrays.asList("ས", "ཀས"), Arrays.asList());
+        char[] text = "ཁཀས".toCharArray();
+        
+        assertEquals(1, ordered.suffixLength(text, 0, text.length));
+        assertEquals(2, new TibetanSuffixTable(Arrays.asList("ཀས", "ས"), Arrays.asList())
+            .suffixLength(text, 0, text.length));
+    }
+    
+    @Test
+    public void testEmptyTable() {
+        TibetanSuffixTable empty = new TibetanSuffixTable(Arrays.asList(), Arrays.asList());
+        char[] text = "ཀའི".toCharArray();
+        
+        assertEquals(0, empty.suffixLength(text, 0, text.length));
+    }
+}
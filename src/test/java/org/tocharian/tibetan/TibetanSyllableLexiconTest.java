@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanSyllableLexicon
+ */
+public class TibetanSyllableLexiconTest {
+    
+    private final TibetanSyllableLexicon lexicon = new TibetanSyllableLexicon(new String[] {"བཀྲ", "བཀྲས", "ཤིས"});
+    
+    @Test
+    public void testIdsFollowSortedOrder() {
+        assertEquals(3, lexicon.size());
+        assertEquals(0, lexicon.id("བཀྲ", 0, 3));
+        assertEquals(1, lexicon.id("བཀྲས", 0, 4));
+        assertEquals(2, lexicon.id("xxཤིས", 2, 5));
+        assertEquals("བཀྲས", lexicon.syllable(1));
+    }
+    
+    @Test
+    public void testUnknownSyllables() {
+        assertEquals(TibetanSyllableLexicon.UNKNOWN, lexicon.id("བཀ", 0, 2));
+        assertEquals(TibetanSyllableLexicon.UNKNOWN, lexicon.id("ཤིསས", 0, 4));
+        assertEquals(TibetanSyllableLexicon.UNKNOWN, lexicon.id("", 0, 0));
+        assertEquals(TibetanSyllableLexicon.UNKNOWN, lexicon.id(TibetanSyllableLexicon.NO_NODE));
+    }
+    
+    @Test
+    public void testCharacterWalk() {
+        char[] text = "བཀྲས".toCharArray();
+        int node = TibetanSyllableLexicon.ROOT;
+        for (int i = 0; i < 3; i++) {
+            node = lexicon.child(node, text[i]);
+        }
+        assertEquals(0, lexicon.id(node));
+        assertEquals(1, lexicon.id(lexicon.child(node, text[3])));
+        assertEquals(lexicon.id(text, 0, 4), lexicon.id("བཀྲས", 0, 4));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanSyllables
+ */
+public class TibetanSyllablesTest {
+    
+    private final TibetanSyllables syllables = new TibetanSyllables();
+    
+    private List<String> split(String text) {
+        char[] chars = text.toCharArray();
+        int size = syllables.split(chars, 0, chars.length);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add(new String(chars, syllables.start(i), syllables.end(i) - syllables.start(i)) + "/" + syllables.runEnd(i));
+        }
+        return result;
+    }
+    
+    @Test
+    public void testSplitsAtTsheg() {
+        assertEquals(List.of("བཀྲ/3", "ཤིས/3", "བདེ/3"), split("བཀྲ་ཤིས་བདེ་"));
+        assertEquals(List.of("བཀྲ/2", "ཤིས/2"), split("བཀྲ༌ཤིས"));
+    }
+    
+    @Test
+    public void testOtherCharactersEndRuns() {
+        assertEquals(List.of("ཡིན/1", "ང/3", "ཚོ/3", "བོད/4"), split("ཡིན། ང་ཚོ abc བོད"));
+        assertEquals(List.of("ཀ/1", "ཁ/2"), split("ཀ་་ཁ"));
+        assertEquals(List.of(), split("abc 123།"));
+    }
+    
+    @Test
+    public void testOffsetsIntoText() {
+        char[] text = "xxབཀྲ་ཤིསyy".toCharArray();
+        assertEquals(2, syllables.split(text, 2, 9));
+        assertEquals(2, syllables.start(0));
+        assertEquals(5, syllables.end(0));
+        assertEquals(6, syllables.start(1));
+        assertEquals(9, syllables.end(1));
+    }
+    
+    @Test
+    public void testGrowsPastInitialCapacity() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append("ཀ་");
+        }
+        char[] chars = text.toString().toCharArray();
+        assertEquals(40, syllables.split(chars, 0, chars.length));
+        assertEquals(40, syllables.runEnd(0));
+        assertEquals(78, syllables.start(39));
+    }
+}
@@ -19,7 +19,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -75,6 +79,264 @@ public class TibetanTokenizerTest {
         System.out.println("Mixed tokens: " + tokens);
     }
     
+    @Test
+    public void testLongestMatch() {
+        List<String> tokens = tokenizer.tokenize("བཀྲ་ཤིས་བདེ་ལེགས།");
+        
+        assertEquals(Arrays.asList("བཀྲ་ཤིས་བདེ་ལེགས", "།"), tokens);
+    }
+    
+    @Test
+    public void testAshungSuffixReconstruction() {
+        List<String> tokens = tokenizer.tokenize("བཙའི");
+        
+        assertEquals(Arrays.asList("བཙའ", "འི"), tokens);
+    }
+    
+    @Test
+    public void testSuffixesKeptWhenNotSplitting() {
+        TibetanTokenizer unsplit = new TibetanTokenizer(dictionary, false);
+        
+        assertEquals(Arrays.asList("བཙའི"), unsplit.tokenize("བཙའི"));
+        assertEquals(Arrays.asList("དམར"), unsplit.tokenize("དམར་"));
+    }
+    
+    @Test
+    public void testUserDictionaryEntries() throws IOException {
+        assertEquals(Arrays.asList("ཀཀ", "ཀཀ", "ལ"), tokenizer.tokenize("ཀཀ་ཀཀ་ལ"));
+        
+        // Entries are normalized: non-breaking and closing tshegs do not matter
+        TibetanDictionaryManager userDictionary = new TibetanDictionaryManager(Arrays.asList("ཀཀ༌ཀཀ་"));
+        userDictionary.initialize();
+        TibetanTokenizer userTokenizer = new TibetanTokenizer(userDictionary);
+        
+        assertEquals(Arrays.asList("ཀཀ་ཀཀ", "ལ"), userTokenizer.tokenize("ཀཀ་ཀཀ་ལ"));
+        assertTrue(userDictionary.isCustomWord("ཀཀ་ཀཀ"));
+        assertEquals(Integer.valueOf(1), userDictionary.getStatistics().get("user_words"));
+    }
+    
+    @Test
+    public void testTokenTypesFromLookup() {
+        char[] text = "བོད་ཀྱི་ཡིག་གི་ལ་བཙའི་ཀཀ།".toCharArray();
+        List<String> tokens = new ArrayList<>();
+        
+        tokenizer.tokenize(text, 0, text.length, new TibetanTokenSink() {
+            @Override
+            public void token(char[] text, int start, int end, boolean ashung, int type) {
+                tokens.add(new String(text, start, end - start) + "/" + TibetanTokenizer.TOKEN_TYPES[type]);
+            }
+        });
+        
+        assertEquals(Arrays.asList("བོད་ཀྱི/word", "ཡིག/word", "གི/particle", "ལ/particle",
+            "བཙ/verb", "འི/suffix", "ཀཀ/unknown", "།/<PUNCT>"), tokens);
+    }
+    
+    @Test
+    public void testSegmentationStats() {
+        TibetanSegmentationStats stats = dictionary.getSegmentationStats();
+        String text = "བོད་ཀྱི་ཡིག་གི་ལ་བཙའི་ཀཀ། abc";
+        tokenizer.tokenize(text);
+        
+        assertEquals(1, stats.getDocumentCount());
+        assertEquals(text.length(), stats.getCharCount());
+        assertEquals(2, stats.getTokenCount(TibetanTokenizer.WORD));
+        assertEquals(2, stats.getTokenCount(TibetanTokenizer.PARTICLE));
+        assertEquals(1, stats.getTokenCount(TibetanTokenizer.SUFFIX));
+        assertEquals(1, stats.getTokenCount(TibetanTokenizer.UNKNOWN));
+        assertEquals(1, stats.getTokenCount(TibetanTokenizer.ALPHANUM));
+        assertEquals(7, stats.getSyllableCount());
+        
+        Map<String, Object> statistics = stats.getStatistics();
+        assertEquals(9L, statistics.get("tokens"));
+        assertEquals(1.0 / 7, (Double) statistics.get("oov_rate"), 1e-9);
+        assertEquals(5.0 / 6, (Double) statistics.get("dictionary_hit_rate"), 1e-9);
+        
+        // Cached runs are counted as they are replayed
+        TibetanSegmentationCache cache = new TibetanSegmentationCache(100, 10_000);
+        TibetanTokenizer cached = new TibetanTokenizer(dictionary, true, cache);
+        cached.tokenize(text);
+        cached.tokenize(text);
+        statistics = stats.getStatistics();
+        assertEquals(3L, statistics.get("documents"));
+        assertEquals(27L, statistics.get("tokens"));
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(1L, cache.getHitCount());
+    }
+    
+    @Test
+    public void testNonTibetanRunsGrouped() {
+        assertEquals(Arrays.asList("ནད", "HBsAg", "ཡོད", "1,000", "can't", "U.S.A", "ཀ"),
+            tokenizer.tokenize("ནད HBsAg ཡོད 1,000 can't U.S.A. ཀ"));
+        assertEquals(Arrays.asList("COVID", "19", "ནད"), tokenizer.tokenize("COVID-19ནད"));
+        assertEquals(Arrays.asList("中", "文", "カタカナ", "한국어", "༡༢"), tokenizer.tokenize("中文カタカナ 한국어\u00A0༡༢"));
+    }
+    
+    @Test
+    public void testOnlyTibetanPunctuationKept() {
+        assertEquals(Arrays.asList("ནད", "ཡོད", "།"), tokenizer.tokenize("(ནད) + «ཡོད»།"));
+        assertEquals(Arrays.asList("༄", "ཀ"), tokenizer.tokenize("༄ ཀ, ... !"));
+    }
+    
+    @Test
+    public void testNonTibetanTokenDeferredAtChunkEnd() {
+        char[] text = "ཀ་ཁ abc".toCharArray();
+        List<Integer> types = new ArrayList<>();
+        TibetanTokenSink sink = new TibetanTokenSink() {
+            @Override
+            public void token(char[] text, int start, int end, boolean ashung, int type) {
+                types.add(type);
+            }
+        };
+        
+        // "abc" may go on in the next chunk
+        assertEquals(4, tokenizer.tokenize(text, 0, text.length, false, sink));
+        assertEquals(7, tokenizer.tokenize(text, 4, 3, true, sink));
+        assertEquals(TibetanTokenizer.ALPHANUM, (int) types.get(types.size() - 1));
+        assertEquals("<ALPHANUM>", TibetanTokenizer.TOKEN_TYPES[TibetanTokenizer.ALPHANUM]);
+    }
+    
+    @Test
+    public void testWindowFollowsLongestEntry() throws IOException {
+        assertEquals(4, dictionary.getMaxSyllables());
+        assertEquals(4, tokenizer.getMaxSyllables());
+        
+        TibetanDictionaryManager userDictionary = new TibetanDictionaryManager(Arrays.asList("ཀཀ་ཁཁ་གག་ངང་ཅཅ་ཆཆ"));
+        userDictionary.initialize();
+        TibetanTokenizer userTokenizer = new TibetanTokenizer(userDictionary);
+        
+        assertEquals(6, userTokenizer.getMaxSyllables());
+        assertEquals(Arrays.asList("ཀཀ་ཁཁ་གག་ངང་ཅཅ་ཆཆ", "།"), userTokenizer.tokenize("ཀཀ་ཁཁ་གག་ངང་ཅཅ་ཆཆ།"));
+        
+        // A configured window shorter than the entry does not reach it
+        TibetanTokenizer shortWindow = new TibetanTokenizer(userDictionary, true, null, 4);
+        assertEquals(Arrays.asList("ཀཀ", "ཁཁ", "གག", "ངང", "ཅཅ", "ཆཆ", "།"), shortWindow.tokenize("ཀཀ་ཁཁ་གག་ངང་ཅཅ་ཆཆ།"));
+    }
+    
+    @Test
+    public void testViterbiAvoidsGreedySplit() throws IOException {
+        TibetanDictionaryManager userDictionary = new TibetanDictionaryManager(Arrays.asList("ཀཀ་ཁཁ", "ཁཁ་གག་ངང"));
+        userDictionary.initialize();
+        TibetanTokenizer greedy = new TibetanTokenizer(userDictionary);
+        TibetanTokenizer viterbi = new TibetanTokenizer(userDictionary, true, null, 0, TibetanTokenizer.Mode.VITERBI);
+        
+        // The two-syllable word takes the first syllable of the three-syllable one
+        assertEquals(Arrays.asList("ཀཀ་ཁཁ", "གག", "ངང", "།"), greedy.tokenize("ཀཀ་ཁཁ་གག་ངང།"));
+        assertEquals(Arrays.asList("ཀཀ", "ཁཁ་གག་ངང", "།"), viterbi.tokenize("ཀཀ་ཁཁ་གག་ངང།"));
+        
+        // Without a better path both modes agree, suffixes and stray tshegs included
+        String text = "བཀྲ་ཤིས་བདེ་ལེགས། བོད་ཀྱི་ཡིག་གི་ལ་བཙའི་ཀཀ་་ཁ";
+        TibetanTokenizer plain = new TibetanTokenizer(dictionary, true, null, 0, TibetanTokenizer.Mode.VITERBI);
+        assertEquals(tokenizer.tokenize(text), plain.tokenize(text));
+    }
+    
+    @Test
+    public void testViterbiFollowsCounts() throws IOException {
+        // A rare compound loses to two frequent words
+        TibetanDictionaryManager userDictionary = new TibetanDictionaryManager(
+            Arrays.asList("ཀཀ་ཁཁ", "ཀཀ 1000000", "ཁཁ\t1000000"));
+        userDictionary.initialize();
+        TibetanTokenizer viterbi = new TibetanTokenizer(userDictionary, true, null, 0, TibetanTokenizer.Mode.VITERBI);
+        
+        assertEquals(Arrays.asList("ཀཀ", "ཁཁ"), viterbi.tokenize("ཀཀ་ཁཁ"));
+        assertEquals(Arrays.asList("ཀཀ་ཁཁ"), new TibetanTokenizer(userDictionary).tokenize("ཀཀ་ཁཁ"));
+        assertEquals(Integer.valueOf(2), userDictionary.getStatistics().get("trie_counted_entries"));
+        assertTrue(userDictionary.isCustomWord("ཀཀ"));
+    }
+    
+    @Test
+    public void testViterbiLeavesFinalRunToNextChunk() throws IOException {
+        TibetanTokenizer viterbi = new TibetanTokenizer(dictionary, true, null, 0, TibetanTokenizer.Mode.VITERBI);
+        char[] text = "བོད་ཡིག། བཀྲ་ཤིས".toCharArray();
+        List<String> tokens = new ArrayList<>();
+        TibetanTokenSink sink = new TibetanTokenSink() {
+            @Override
+            public void token(char[] text, int start, int end, boolean ashung, int type) {
+                tokens.add(new String(text, start, end - start));
+            }
+        };
+        
+        // The last run may go on in the next chunk
+        assertEquals(9, viterbi.tokenize(text, 0, text.length, false, sink));
+        assertEquals(text.length, viterbi.tokenize(text, 9, text.length - 9, true, sink));
+        assertEquals(viterbi.tokenize(new String(text)), tokens);
+    }
+    
+    @Test
+    public void testSearchModeEmitsSubwords() {
+        TibetanTokenizer search = new TibetanTokenizer(dictionary, true, null, 0, TibetanTokenizer.Mode.GREEDY, true);
+        String text = "བཀྲ་ཤིས་བདེ་ལེགས་ཡིན། ཉུང་དྲགས་པའམ་ནད";
+        
+        // Words of three or more syllables span the positions of their parts
+        assertEquals(Arrays.asList("བཀྲ་ཤིས་བདེ་ལེགས/1/2", "བཀྲ་ཤིས/0/1", "བདེ་ལེགས/1/1", "ཡིན/1/1", "།/1/1",
+            "ཉུང་དྲགས་པ/1/2", "ཉུང/0/1", "དྲགས་པ/1/1", "འམ/1/1", "ནད/1/1"), graph(search, text));
+        
+        // Cached runs get their sub-words when replayed
+        TibetanTokenizer cached = new TibetanTokenizer(dictionary, true, new TibetanSegmentationCache(100, 10_000),
+            0, TibetanTokenizer.Mode.GREEDY, true);
+        assertEquals(graph(search, text), graph(cached, text));
+        assertEquals(graph(search, text), graph(cached, text));
+        
+        // Two-syllable words are left whole
+        assertEquals(Arrays.asList("བཀྲ་ཤིས/1/1"), graph(search, "བཀྲ་ཤིས"));
+    }
+    
+    private static List<String> graph(TibetanTokenizer tokenizer, String text) {
+        char[] buffer = text.toCharArray();
+        List<String> tokens = new ArrayList<>();
+        tokenizer.tokenize(buffer, 0, buffer.length, new TibetanTokenSink() {
+            @Override
+            public void token(char[] text, int start, int end, boolean ashung, int type) {
+                token(text, start, end, ashung, type, 1, 1);
+            }
+            
+            @Override
+            public void token(char[] text, int start, int end, boolean ashung, int type,
+                              int positionIncrement, int positionLength) {
+                tokens.add(new String(text, start, end - start) + "/" + positionIncrement + "/" + positionLength);
+            }
+        });
+        return tokens;
+    }
+    
+    @Test
+    public void testTrailingTshegAtRunEnd() {
+        // The tsheg ending the run counts as a syllable, so the word list
+        // is not consulted before the ashung verb with a suffix
+        List<String> tokens = tokenizer.tokenize("དམར་");
+        
+        assertEquals(Arrays.asList("དམའ", "ར"), tokens);
+    }
+    
+    @Test
+    public void testCharBufferMatchesStringApi() {
+        String text = "ང་ཚོས་སློབ་གྲྭར་འགྲོ་དགོས། abc";
+        char[] buffer = ("xx" + text).toCharArray();
+        List<String> tokens = new ArrayList<>();
+        
+        tokenizer.tokenize(buffer, 2, text.length(), new TibetanTokenSink() {
+            @Override
+            public void token(char[] text, int start, int end, boolean ashung, int type) {
+                assertTrue(start >= 2 && end <= text.length);
+                String token = new String(text, start, end - start);
+                tokens.add(ashung ? token + "འ" : token);
+            }
+        });
+        
+        assertEquals(tokenizer.tokenize(text), tokens);
+    }
+    
+    @Test
+    public void testParticleSet() {
+        Set<String> particles = dictionary.getParticles();
+        
+        assertTrue(particles.contains("གི"));
+        assertTrue(particles.contains("ལ"));
+        assertFalse(particles.contains("བཀྲ་ཤིས"));
+        for (String particle : particles) {
+            assertTrue(particle, dictionary.isParticle(particle));
+        }
+    }
+    
     @Test
     public void testDictionaryInitialization() {
         assertTrue(dictionary.isInitialized());
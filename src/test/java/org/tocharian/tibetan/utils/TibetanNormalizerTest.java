@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.tocharian.tibetan.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for TibetanNormalizer
+ */
+public class TibetanNormalizerTest {
+    
+    @Test
+    public void testWhitespaceAndTsheg() {
+        assertEquals("བོད་ཡིག ཀ", TibetanNormalizer.normalize("  བོད༌ཡིག \t\n ཀ  "));
+        assertEquals("བོད་ཡིག", TibetanNormalizer.normalize("བོད་་༌ཡིག"));
+        assertEquals("", TibetanNormalizer.normalize(" \t "));
+    }
+    
+    @Test
+    public void testZeroWidthCharactersAreRemoved() {
+        assertEquals("ཀུན་མཁྱེན", TibetanNormalizer.normalize("ཀུན་\u200Bམཁྱེན\u200D\uFEFF"));
+    }
+    
+    @Test
+    public void testDecomposedLettersAreComposed() {
+        assertEquals("\u0F68\u0F73", TibetanNormalizer.normalize("\u0F68\u0F71\u0F72"));
+        assertEquals("\u0F57\u0F72", TibetanNormalizer.normalize("\u0F56\u0FB7\u0F72"));
+        assertEquals("\u0F56\u0FB7\u0F72", TibetanNormalizer.decompose("\u0F57\u0F72"));
+        assertEquals("བེ", TibetanNormalizer.normalize("བེ"));
+    }
+    
+    @Test
+    public void testChunkedInputMatchesWholeText() {
+        String text = " \u0F40\u0F71\u0F72་་\u200Bཁ  \u0F42\u0FB7 ";
+        TibetanNormalizer normalizer = new TibetanNormalizer();
+        char[] input = text.toCharArray();
+        StringBuilder output = new StringBuilder();
+        char[] chunk = new char[3];
+        
+        for (int offset = 0; offset < input.length; offset++) {
+            int written = normalizer.normalize(input, offset, 1, chunk, 0);
+            output.append(chunk, 0, written);
+        }
+        output.append(chunk, 0, normalizer.finish(chunk, 0));
+        
+        assertEquals(TibetanNormalizer.normalize(text), output.toString());
+        assertEquals("\u0F40\u0F73་ཁ \u0F43", output.toString());
+    }
+    
+    @Test
+    public void testOffsetsMapBackToInput() {
+        String text = "  \u0F40\u0F71\u0F72་་ཁ\u200B ག";
+        TibetanNormalizer normalizer = new TibetanNormalizer();
+        char[] buffer = text.toCharArray();
+        int length = normalizer.normalize(buffer, 0, buffer.length, buffer, 0);
+        length += normalizer.finish(buffer, length);
+        
+        assertEquals("\u0F40\u0F73་ཁ ག", new String(buffer, 0, length));
+        assertEquals(2, normalizer.correctOffset(0));       // ཀ after the leading spaces
+        assertEquals(5, normalizer.correctOffset(2));       // End of the composed vowel
+        assertEquals(7, normalizer.correctOffset(3));       // ཁ after the doubled tsheg
+        assertEquals(text.length(), normalizer.correctOffset(length));
+    }
+}